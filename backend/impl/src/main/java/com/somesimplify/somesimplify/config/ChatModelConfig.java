@@ -0,0 +1,69 @@
+package com.somesimplify.somesimplify.config;
+
+import com.somesimplify.somesimplify.resilience.ResilientChatModel;
+import com.somesimplify.somesimplify.service.TokenUsageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.ai.google.genai.GoogleGenAiChatModel;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chat-model")
+public class ChatModelConfig {
+    /**
+     * Longest a single chat model call may take, or the longest wait between two chunks of a stream
+     */
+    private Duration timeout = Duration.ofMinutes(3);
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private Concurrency concurrency = new Concurrency();
+    private Hedging hedging = new Hedging();
+
+    /**
+     * Everything that injects a {@code ChatModel} gets the resilient one
+     */
+    @Primary
+    @Bean(destroyMethod = "shutdown")
+    public ResilientChatModel resilientChatModel(GoogleGenAiChatModel googleGenAiChatModel,
+                                                 TokenUsageService tokenUsageService, MeterRegistry meterRegistry) {
+        return new ResilientChatModel(googleGenAiChatModel, this, tokenUsageService, meterRegistry);
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private double failureRateThreshold = 0.5;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private int halfOpenCalls = 2;
+    }
+
+    @Data
+    public static class Concurrency {
+        private int initialLimit = 8;
+        private int minLimit = 1;
+        private int maxLimit = 32;
+        private double backoffRatio = 0.7;
+
+        /**
+         * Calls slower than this count as overload and lower the limit
+         */
+        private Duration latencyThreshold = Duration.ofSeconds(45);
+
+        /**
+         * Longest a call waits for a free slot before it is rejected
+         */
+        private Duration maxWait = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Hedging {
+        private boolean enabled = false;
+        private Duration delay = Duration.ofSeconds(30);
+    }
+}
@@ -0,0 +1,72 @@
+package com.somesimplify.somesimplify.config;
+
+import com.somesimplify.somesimplify.multitenancy.executor.TenantFairExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "generation")
+public class GenerationConfig {
+    /**
+     * Most content files a tenant gets posts generated for per run, newest first. The rest are
+     * picked up by later runs.
+     */
+    private int maxFilesPerRun = 20;
+    private int maxConcurrency = 16;
+    private int maxConcurrencyPerTenant = 4;
+    private int maxQueued = 10000;
+    /**
+     * How long the browser waits for a streamed caption. Calls to the chat model itself are
+     * limited by {@code chat-model.timeout}.
+     */
+    private Duration captionTimeout = Duration.ofMinutes(2);
+
+    /**
+     * Images sent to the model in one caption request. The system prompt is sent once per request.
+     */
+    private int imagesPerRequest = 5;
+
+    /**
+     * Number of generated posts saved together in one transaction
+     */
+    private int saveBatchSize = 10;
+    private CaptionCache captionCache = new CaptionCache();
+    private Jobs jobs = new Jobs();
+
+    @Bean(destroyMethod = "shutdown")
+    public TenantFairExecutor generationExecutor(MeterRegistry meterRegistry) {
+        return new TenantFairExecutor("generation",
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("generate-", 0).factory()),
+                maxConcurrency, maxConcurrencyPerTenant, maxQueued, meterRegistry);
+    }
+
+    @Data
+    public static class CaptionCache {
+        private boolean enabled = true;
+        private Duration ttl = Duration.ofDays(30);
+        private int maxMemoryEntries = 10000;
+        private String purgeCron = "0 0 4 * * *";
+    }
+
+    @Data
+    public static class Jobs {
+        private String recoveryCron = "30 * * * * *";
+
+        /**
+         * A running job whose node has not sent a heartbeat for this long is queued again
+         */
+        private Duration staleAfter = Duration.ofMinutes(5);
+
+        /**
+         * A queued job no node has claimed for this long is started by the recovery job
+         */
+        private Duration queuedAfter = Duration.ofMinutes(1);
+    }
+}
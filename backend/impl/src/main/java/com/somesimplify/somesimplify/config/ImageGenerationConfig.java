@@ -0,0 +1,43 @@
+package com.somesimplify.somesimplify.config;
+
+import com.somesimplify.somesimplify.multitenancy.executor.TenantFairExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "image-generation")
+public class ImageGenerationConfig {
+    private String model = "gemini-3-pro-image-preview";
+    private int maxConcurrency = 2;
+    private int maxConcurrencyPerTenant = 1;
+    private int maxQueued = 50;
+
+    /**
+     * Most jobs a node claims per dispatch. Together with the dispatch cron this sets how fast
+     * the day's jobs are worked through.
+     */
+    private int claimBatchSize = 5;
+    private int maxAttempts = 3;
+    private Duration leaseDuration = Duration.ofMinutes(15);
+
+    /**
+     * Queuing is idempotent per tenant and day, so running it hourly also catches tenants that
+     * turned image generation on during the day.
+     */
+    private String enqueueCron = "0 5 * * * *";
+    private String dispatchCron = "0 * * * * *";
+
+    @Bean(destroyMethod = "shutdown")
+    public TenantFairExecutor imageGenerationExecutor(MeterRegistry meterRegistry) {
+        return new TenantFairExecutor("image-generation",
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("image-generate-", 0).factory()),
+                maxConcurrency, maxConcurrencyPerTenant, maxQueued, meterRegistry);
+    }
+}
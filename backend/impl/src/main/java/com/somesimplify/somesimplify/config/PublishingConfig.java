@@ -0,0 +1,53 @@
+package com.somesimplify.somesimplify.config;
+
+import com.somesimplify.somesimplify.multitenancy.executor.TenantFairExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "publishing")
+public class PublishingConfig {
+    private int maxConcurrency = 8;
+    private int maxConcurrencyPerTenant = 2;
+    private int maxQueued = 1000;
+    private boolean virtualThreads = true;
+    private int claimBatchSize = 100;
+    private Duration leaseDuration = Duration.ofMinutes(10);
+    private Duration timerWindow = Duration.ofMinutes(10);
+    private Duration catchUpDelay = Duration.ofSeconds(1);
+    private Retry retry = new Retry();
+    private Staging staging = new Staging();
+
+    @Bean(destroyMethod = "shutdown")
+    public TenantFairExecutor publishExecutor(MeterRegistry meterRegistry) {
+        ExecutorService workers = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("publish-", 0).factory())
+                : Executors.newFixedThreadPool(maxConcurrency, Thread.ofPlatform().name("publish-", 0).factory());
+
+        return new TenantFairExecutor("publish", workers, maxConcurrency,
+                maxConcurrencyPerTenant, maxQueued, meterRegistry);
+    }
+
+    @Data
+    public static class Retry {
+        private int maxAttempts = 6;
+        private Duration baseDelay = Duration.ofMinutes(1);
+        private Duration maxDelay = Duration.ofHours(2);
+        private Duration rateLimitDelay = Duration.ofMinutes(15);
+    }
+
+    @Data
+    public static class Staging {
+        private boolean enabled = true;
+        private Duration lookAhead = Duration.ofMinutes(15);
+        private Duration leaseDuration = Duration.ofMinutes(5);
+    }
+}
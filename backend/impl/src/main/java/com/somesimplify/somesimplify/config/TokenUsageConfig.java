@@ -0,0 +1,16 @@
+package com.somesimplify.somesimplify.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "token-usage")
+public class TokenUsageConfig {
+    /**
+     * Chat model tokens a tenant may use per day, unless the tenant has its own budget. 0 means no limit.
+     */
+    private long defaultDailyBudget = 0;
+    private String flushCron = "*/30 * * * * *";
+}
@@ -0,0 +1,26 @@
+package com.somesimplify.somesimplify.dto.instagram;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+@Data
+public class GraphApiErrorResponse {
+
+    private GraphApiError error;
+
+    @Data
+    public static class GraphApiError {
+
+        private String message;
+
+        private String type;
+
+        private Integer code;
+
+        @JsonProperty("error_subcode")
+        private Integer errorSubcode;
+
+        @JsonProperty("is_transient")
+        private Boolean isTransient;
+    }
+}
@@ -0,0 +1,23 @@
+package com.somesimplify.somesimplify.dto.instagram;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One operation in a Graph API batch request. The body is form encoded, as the batch API expects.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record GraphBatchRequest(
+        String method,
+        @JsonProperty("relative_url") String relativeUrl,
+        String body
+) {
+
+    public static GraphBatchRequest get(String relativeUrl) {
+        return new GraphBatchRequest("GET", relativeUrl, null);
+    }
+
+    public static GraphBatchRequest post(String relativeUrl, String body) {
+        return new GraphBatchRequest("POST", relativeUrl, body);
+    }
+}
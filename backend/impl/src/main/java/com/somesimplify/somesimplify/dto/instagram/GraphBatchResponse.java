@@ -0,0 +1,31 @@
+package com.somesimplify.somesimplify.dto.instagram;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Result of one operation in a Graph API batch request. The body is the JSON response of the
+ * operation as a string.
+ */
+@Data
+public class GraphBatchResponse {
+
+    private int code;
+
+    private List<Header> headers;
+
+    private String body;
+
+    public boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+
+    @Data
+    public static class Header {
+
+        private String name;
+
+        private String value;
+    }
+}
@@ -0,0 +1,16 @@
+package com.somesimplify.somesimplify.dto.instagram;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+@Data
+public class InstagramContainerStatus {
+
+    private String id;
+
+    /**
+     * One of EXPIRED, ERROR, FINISHED, IN_PROGRESS or PUBLISHED
+     */
+    @JsonProperty("status_code")
+    private String statusCode;
+}
@@ -0,0 +1,12 @@
+package com.somesimplify.somesimplify.event;
+
+import com.somesimplify.model.PostStatus;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Published when the status or due time of a post changes, so the in-memory publish timer
+ * can be updated without waiting for the next database resync.
+ */
+public record PostScheduleChangedEvent(String postId, PostStatus status, OffsetDateTime dueAt) {
+}
@@ -1,6 +1,8 @@
 package com.somesimplify.somesimplify.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -23,4 +25,23 @@ public class GlobalExceptionHandler {
     public ResponseEntity<String> handleBadCredentialsException(BadCredentialsException e) {
         return ResponseEntity.status(401).body(e.getMessage());
     }
+
+    /**
+     * The row was changed by someone else since it was read, e.g. a post the publisher leased
+     * while it was being edited. The version check runs when the transaction commits, so this
+     * can not be caught in the service method itself.
+     */
+    @ResponseStatus(HttpStatus.CONFLICT)
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleOptimisticLockingFailureException(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(409).body("The item was changed by someone else, reload it and try again");
+    }
+
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    @ExceptionHandler(TokenBudgetExceededException.class)
+    public ResponseEntity<String> handleTokenBudgetExceededException(TokenBudgetExceededException e) {
+        return ResponseEntity.status(429)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                .body(e.getMessage());
+    }
 }
@@ -1,12 +1,51 @@
 package com.somesimplify.somesimplify.exception;
 
+import lombok.Getter;
+
+@Getter
 public class InstagramPublishException extends RuntimeException {
 
+    /**
+     * HTTP status of the failed Graph API call, or null if no response was received
+     */
+    private final Integer httpStatus;
+
+    /**
+     * Graph API error code and subcode from the error response, if any
+     */
+    private final Integer graphErrorCode;
+    private final Integer graphErrorSubcode;
+    private final boolean transientError;
+
     public InstagramPublishException(String message) {
-        super(message);
+        this(message, null, null, null, null, false);
     }
 
     public InstagramPublishException(String message, Throwable cause) {
+        this(message, cause, null, null, null, false);
+    }
+
+    public InstagramPublishException(String message, Throwable cause, Integer httpStatus,
+                                     Integer graphErrorCode, Integer graphErrorSubcode, boolean transientError) {
         super(message, cause);
+        this.httpStatus = httpStatus;
+        this.graphErrorCode = graphErrorCode;
+        this.graphErrorSubcode = graphErrorSubcode;
+        this.transientError = transientError;
+    }
+
+    /**
+     * Short code stored on the post, e.g. GRAPH_4, GRAPH_100_2207026, HTTP_503 or NO_RESPONSE
+     */
+    public String getErrorCode() {
+        if (graphErrorCode != null) {
+            return graphErrorSubcode != null
+                    ? "GRAPH_" + graphErrorCode + "_" + graphErrorSubcode
+                    : "GRAPH_" + graphErrorCode;
+        }
+        if (httpStatus != null) {
+            return "HTTP_" + httpStatus;
+        }
+        return transientError ? "NO_RESPONSE" : "UNKNOWN";
     }
 }
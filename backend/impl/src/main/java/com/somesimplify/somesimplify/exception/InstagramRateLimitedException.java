@@ -0,0 +1,25 @@
+package com.somesimplify.somesimplify.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling the Graph API when the account is out of quota. The call can be
+ * retried after {@link #getRetryAfter()} without counting as a failed attempt.
+ */
+@Getter
+public class InstagramRateLimitedException extends InstagramPublishException {
+
+    private final Duration retryAfter;
+
+    public InstagramRateLimitedException(String message, Duration retryAfter) {
+        super(message, null, null, null, null, true);
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public String getErrorCode() {
+        return "RATE_LIMITED";
+    }
+}
@@ -0,0 +1,19 @@
+package com.somesimplify.somesimplify.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown instead of calling the chat model while it is unhealthy or at its concurrency limit,
+ * and when a call does not finish within its deadline.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "SERVICE_UNAVAILABLE")
+public class ModelUnavailableException extends RuntimeException {
+    public ModelUnavailableException(String message) {
+        super(message);
+    }
+
+    public ModelUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,23 @@
+package com.somesimplify.somesimplify.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling the chat model when the tenant has used up its daily token budget.
+ * The call can be made again after {@link #getRetryAfter()}, when the next day's budget starts.
+ */
+@Getter
+@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS, reason = "TOO_MANY_REQUESTS")
+public class TokenBudgetExceededException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public TokenBudgetExceededException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,18 @@
+package com.somesimplify.somesimplify.job;
+
+import com.somesimplify.somesimplify.service.TokenUsageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class FlushTokenUsageJob {
+
+    private final TokenUsageService tokenUsageService;
+
+    @Scheduled(cron = "${token-usage.flush-cron}")
+    public void run() {
+        tokenUsageService.flush();
+    }
+}
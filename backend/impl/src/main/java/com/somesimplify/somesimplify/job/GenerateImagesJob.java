@@ -0,0 +1,31 @@
+package com.somesimplify.somesimplify.job;
+
+import com.somesimplify.somesimplify.service.ImageGenerationQueueService;
+import com.somesimplify.somesimplify.service.ImageGenerationService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Queues a daily image generation job per tenant, and works through the queue a few jobs at a
+ * time on every node instead of generating everything at once. Jobs left running by a node that
+ * went away on their last attempt are failed before each dispatch.
+ */
+@Component
+@RequiredArgsConstructor
+public class GenerateImagesJob {
+
+    private final ImageGenerationQueueService imageGenerationQueueService;
+    private final ImageGenerationService imageGenerationService;
+
+    @Scheduled(cron = "${image-generation.enqueue-cron}")
+    public void enqueueDailyJobs() {
+        imageGenerationQueueService.enqueueDailyJobs();
+    }
+
+    @Scheduled(cron = "${image-generation.dispatch-cron}")
+    public void dispatchQueuedJobs() {
+        imageGenerationQueueService.failAbandonedJobs();
+        imageGenerationService.dispatchQueuedJobs();
+    }
+}
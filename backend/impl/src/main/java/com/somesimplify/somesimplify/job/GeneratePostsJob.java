@@ -1,16 +1,13 @@
 package com.somesimplify.somesimplify.job;
 
-import com.somesimplify.somesimplify.model.Tenant;
-import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
 import com.somesimplify.somesimplify.repository.TenantRepository;
-import com.somesimplify.somesimplify.service.PostService;
+import com.somesimplify.somesimplify.service.PostGenerationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 @Slf4j
 @Component
@@ -18,23 +15,14 @@ import java.util.List;
 public class GeneratePostsJob {
 
     private final TenantRepository tenantRepository;
-    private final PostService postService;
+    private final PostGenerationService postGenerationService;
 
     @Scheduled(cron = "0 30 3 * * *")
     //@Scheduled(fixedRate = 1000*60*60*24)
     public void run() {
         LocalDateTime now = LocalDateTime.now();
         log.info("Start generating posts job");
-        loopThroughTenants();
+        postGenerationService.generatePosts(tenantRepository.findAll());
         log.info("Finish generating posts job at {}", now);
     }
-
-    private void loopThroughTenants() {
-        List<Tenant> tenants = tenantRepository.findAll();
-        tenants.forEach(tenant -> {
-            log.info("Generating posts for tenant {}", tenant.getName());
-            TenantContext.setTenantId(tenant.getId());
-            postService.generatePosts(tenant.getId());
-        });
-    }
 }
@@ -0,0 +1,23 @@
+package com.somesimplify.somesimplify.job;
+
+import com.somesimplify.somesimplify.repository.CaptionCacheRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PurgeCaptionCacheJob {
+
+    private final CaptionCacheRepository captionCacheRepository;
+
+    @Scheduled(cron = "${generation.caption-cache.purge-cron}")
+    public void run() {
+        int deleted = captionCacheRepository.deleteExpired(OffsetDateTime.now());
+        log.info("Purged {} expired cached captions", deleted);
+    }
+}
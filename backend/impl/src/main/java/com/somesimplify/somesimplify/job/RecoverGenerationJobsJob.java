@@ -0,0 +1,18 @@
+package com.somesimplify.somesimplify.job;
+
+import com.somesimplify.somesimplify.service.GenerationJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class RecoverGenerationJobsJob {
+
+    private final GenerationJobService generationJobService;
+
+    @Scheduled(cron = "${generation.jobs.recovery-cron}")
+    public void run() {
+        generationJobService.recoverJobs();
+    }
+}
@@ -0,0 +1,10 @@
+package com.somesimplify.somesimplify.mapper;
+
+import com.somesimplify.model.GenerationJobTO;
+import com.somesimplify.somesimplify.model.GenerationJob;
+import org.mapstruct.Mapper;
+
+@Mapper(componentModel = "spring")
+public interface GenerationJobMapper {
+    GenerationJobTO toGenerationJobTO(GenerationJob generationJob);
+}
@@ -10,5 +10,15 @@ public interface PostMapper {
     PostTO toPostTO(Post post);
 
     @Mapping(target = "contentFiles", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "leaseOwner", ignore = true)
+    @Mapping(target = "leaseExpiresAt", ignore = true)
+    @Mapping(target = "publishAttempts", ignore = true)
+    @Mapping(target = "nextAttemptAt", ignore = true)
+    @Mapping(target = "lastPublishErrorCode", ignore = true)
+    @Mapping(target = "instagramItemContainerIds", ignore = true)
+    @Mapping(target = "instagramCarouselContainerId", ignore = true)
+    @Mapping(target = "instagramContainersCreatedAt", ignore = true)
+    @Mapping(target = "instagramMediaId", ignore = true)
     Post toPost(PostTO postTO);
 }
@@ -10,6 +10,9 @@ import org.mapstruct.MappingTarget;
 public interface TenantMapper {
 
     @Mapping(target = "id", ignore = true)
+    @Mapping(target = "captionCacheEnabled", ignore = true)
+    @Mapping(target = "dailyTokenBudget", ignore = true)
+    @Mapping(target = "imageGenerationEnabled", ignore = true)
     Tenant updateTenantFromTO(TenantTO tenantTO, @MappingTarget Tenant tenant);
 
     TenantTO toTenantTO(Tenant tenant);
@@ -0,0 +1,31 @@
+package com.somesimplify.somesimplify.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.OffsetDateTime;
+
+/**
+ * A generated caption, stored under a hash of the image, the prompt and the model that produced it
+ */
+@Data
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_caption_cache_entry_tenant_cache_key",
+        columnNames = {"tenant_id", "cache_key"}))
+@EqualsAndHashCode(callSuper = true)
+public class CaptionCacheEntry extends AbstractBaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Column(nullable = false, length = 64)
+    private String cacheKey;
+
+    @Column(nullable = false, columnDefinition = "text")
+    private String caption;
+
+    @Column(nullable = false)
+    private OffsetDateTime expiresAt;
+}
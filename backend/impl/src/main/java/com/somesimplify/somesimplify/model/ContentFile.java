@@ -7,9 +7,11 @@ import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
 
 @Data
 @Entity
+@Table(indexes = @Index(name = "idx_content_file_tenant_post_generated_at", columnList = "tenant_id, post_generated_at"))
 @EqualsAndHashCode(callSuper = true)
 public class ContentFile extends AbstractBaseEntity {
 
@@ -34,4 +36,20 @@ public class ContentFile extends AbstractBaseEntity {
 
     @ManyToOne(fetch = FetchType.LAZY)
     private User uploadedBy;
+
+    /**
+     * When a draft post was generated for this file, so it is not generated for again
+     */
+    private OffsetDateTime postGeneratedAt;
+
+    /**
+     * Downscaled JPEG rendition that is sent to the language model instead of the original
+     */
+    private String modelImageS3Key;
+
+    /**
+     * SHA-256 of the file content, hex encoded
+     */
+    @Column(length = 64)
+    private String contentHash;
 }
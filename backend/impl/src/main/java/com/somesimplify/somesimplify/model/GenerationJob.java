@@ -0,0 +1,43 @@
+package com.somesimplify.somesimplify.model;
+
+import com.somesimplify.model.GenerationJobStatus;
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.OffsetDateTime;
+
+/**
+ * On-demand generation of draft posts for a tenant. Progress is written as the job runs, so the
+ * job can be polled from any instance and picked up again after a restart.
+ */
+@Data
+@Entity
+@Table(indexes = @Index(name = "idx_generation_job_status", columnList = "status"))
+@EqualsAndHashCode(callSuper = true)
+public class GenerationJob extends AbstractBaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private GenerationJobStatus status;
+
+    private int totalFiles;
+    private int generatedPosts;
+    private int failedFiles;
+
+    @Column(columnDefinition = "text")
+    private String errorMessage;
+
+    /**
+     * Instance running the job, and when it last reported progress
+     */
+    private String owner;
+    private OffsetDateTime heartbeatAt;
+
+    private OffsetDateTime startedAt;
+    private OffsetDateTime finishedAt;
+}
@@ -0,0 +1,50 @@
+package com.somesimplify.somesimplify.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+/**
+ * A tenant's AI image generation for one day. There is at most one per tenant and day, and the
+ * row records how the generation went.
+ */
+@Data
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_image_generation_job_tenant_job_date",
+        columnNames = {"tenant_id", "job_date"}),
+        indexes = @Index(name = "idx_image_generation_job_status", columnList = "status"))
+@EqualsAndHashCode(callSuper = true)
+public class ImageGenerationJob extends AbstractBaseEntity {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Column(nullable = false)
+    private LocalDate jobDate;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    private int attempts;
+
+    // Set while a node is generating the image
+    private String leaseOwner;
+    private OffsetDateTime leaseExpiresAt;
+
+    private OffsetDateTime startedAt;
+    private OffsetDateTime finishedAt;
+    private Long durationMillis;
+    private int generatedImages;
+
+    @Column(columnDefinition = "text")
+    private String errorMessage;
+}
@@ -7,14 +7,18 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Data
 @Entity
 @EqualsAndHashCode(callSuper = true)
+@Table(indexes = @Index(name = "idx_post_status_publish_at", columnList = "status, publish_at"))
 public class Post extends AbstractBaseEntity {
 
     @Id
@@ -33,4 +37,29 @@ public class Post extends AbstractBaseEntity {
 
     @Enumerated(EnumType.STRING)
     private PostStatus status;
+
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
+    // Set while a publisher node holds the post in PUBLISHING
+    private String leaseOwner;
+    private OffsetDateTime leaseExpiresAt;
+
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Integer publishAttempts = 0;
+    private OffsetDateTime nextAttemptAt;
+    private String lastPublishErrorCode;
+
+    // Instagram publish checkpoints, so a retry resumes from the last completed stage
+    @ElementCollection
+    @CollectionTable(name = "post_instagram_item_container", joinColumns = @JoinColumn(name = "post_id"))
+    @MapKeyColumn(name = "content_file_id")
+    @Column(name = "container_id")
+    private Map<String, String> instagramItemContainerIds = new HashMap<>();
+    private String instagramCarouselContainerId;
+    private OffsetDateTime instagramContainersCreatedAt;
+    private String instagramMediaId;
 }
@@ -20,6 +20,21 @@ public class Tenant {
     @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true, mappedBy = "tenantId")
     private List<ContentFile> contentFiles;
 
+    /**
+     * Whether generated captions may be reused for identical images and prompts. Null means yes.
+     */
+    private Boolean captionCacheEnabled;
+
+    /**
+     * Chat model tokens the tenant may use per day. Null means the default budget applies.
+     */
+    private Long dailyTokenBudget;
+
+    /**
+     * Whether an image is generated for the tenant every day. Null means no.
+     */
+    private Boolean imageGenerationEnabled;
+
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -0,0 +1,30 @@
+package com.somesimplify.somesimplify.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDate;
+
+/**
+ * Chat model tokens used by a tenant on one day, in the Europe/Oslo time zone
+ */
+@Data
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_tenant_token_usage_tenant_usage_date",
+        columnNames = {"tenant_id", "usage_date"}))
+@EqualsAndHashCode(callSuper = true)
+public class TenantTokenUsage extends AbstractBaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Column(nullable = false)
+    private LocalDate usageDate;
+
+    private long promptTokens;
+    private long completionTokens;
+    private long calls;
+    private long latencyMillis;
+}
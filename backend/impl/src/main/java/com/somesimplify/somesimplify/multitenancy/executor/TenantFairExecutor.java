@@ -0,0 +1,177 @@
+package com.somesimplify.somesimplify.multitenancy.executor;
+
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded executor that runs tasks on behalf of tenants.
+ * <p>
+ * Tasks are queued per tenant and dispatched round-robin between tenants, so one tenant with
+ * a lot of work cannot hold back the others. At most {@code maxConcurrency} tasks run at once,
+ * and at most {@code maxConcurrencyPerTenant} of them for the same tenant. {@link TenantContext}
+ * is set to the owning tenant while a task runs.
+ */
+@Slf4j
+public class TenantFairExecutor {
+
+    private final String name;
+    private final ExecutorService workers;
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerTenant;
+    private final int maxQueued;
+
+    private final Map<String, Deque<Task>> queuesByTenant = new HashMap<>();
+    private final Deque<String> tenantRotation = new ArrayDeque<>();
+    private final Map<String, Integer> inFlightByTenant = new HashMap<>();
+    private final Map<String, CompletableFuture<Void>> pendingByKey = new HashMap<>();
+    private int queued;
+    private int inFlight;
+
+    public TenantFairExecutor(String name, ExecutorService workers, int maxConcurrency,
+                              int maxConcurrencyPerTenant, int maxQueued, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.workers = workers;
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerTenant = maxConcurrencyPerTenant;
+        this.maxQueued = maxQueued;
+
+        Gauge.builder("tenant.executor.queued", this, TenantFairExecutor::getQueuedCount)
+                .tag("executor", name)
+                .register(meterRegistry);
+        Gauge.builder("tenant.executor.in_flight", this, TenantFairExecutor::getInFlightCount)
+                .tag("executor", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue a task for a tenant. If a task with the same key is already queued or running,
+     * the future of that task is returned and nothing new is queued. The returned future fails
+     * with {@link RejectedExecutionException} if the queue is full.
+     */
+    public synchronized CompletableFuture<Void> submit(String tenantId, String key, Runnable runnable) {
+        CompletableFuture<Void> pending = pendingByKey.get(key);
+        if (pending != null) {
+            return pending;
+        }
+
+        if (queued >= maxQueued) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Executor " + name + " has reached its queue limit of " + maxQueued));
+        }
+
+        Task task = new Task(tenantId, key, runnable, new CompletableFuture<>());
+        Deque<Task> queue = queuesByTenant.computeIfAbsent(tenantId, id -> {
+            tenantRotation.addLast(id);
+            return new ArrayDeque<>();
+        });
+        queue.addLast(task);
+        pendingByKey.put(key, task.future());
+        queued++;
+
+        dispatch();
+        return task.future();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    public synchronized int getRemainingCapacity() {
+        return maxQueued - queued;
+    }
+
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Executor {} did not finish {} running tasks before shutdown", name, getInFlightCount());
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Start queued tasks until the global limit is reached or every tenant with queued work is
+     * at its own limit. Tenants are visited in rotation, one task per visit.
+     */
+    private void dispatch() {
+        int tenantsSkipped = 0;
+        while (inFlight < maxConcurrency && tenantsSkipped < tenantRotation.size()) {
+            String tenantId = tenantRotation.pollFirst();
+            Deque<Task> queue = queuesByTenant.get(tenantId);
+
+            if (inFlightByTenant.getOrDefault(tenantId, 0) >= maxConcurrencyPerTenant) {
+                tenantRotation.addLast(tenantId);
+                tenantsSkipped++;
+                continue;
+            }
+
+            Task task = queue.pollFirst();
+            if (queue.isEmpty()) {
+                queuesByTenant.remove(tenantId);
+            } else {
+                tenantRotation.addLast(tenantId);
+            }
+
+            queued--;
+            inFlight++;
+            inFlightByTenant.merge(tenantId, 1, Integer::sum);
+            tenantsSkipped = 0;
+            start(task);
+        }
+    }
+
+    private void start(Task task) {
+        try {
+            workers.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            complete(task, e);
+        }
+    }
+
+    private void run(Task task) {
+        Throwable failure = null;
+        try {
+            TenantContext.setTenantId(task.tenantId());
+            task.runnable().run();
+        } catch (Throwable t) {
+            log.error("Task {} for tenant {} failed in executor {}: {}",
+                    task.key(), task.tenantId(), name, t.getMessage(), t);
+            failure = t;
+        } finally {
+            TenantContext.clear();
+            complete(task, failure);
+        }
+    }
+
+    private void complete(Task task, Throwable failure) {
+        synchronized (this) {
+            inFlight--;
+            inFlightByTenant.computeIfPresent(task.tenantId(), (id, count) -> count > 1 ? count - 1 : null);
+            pendingByKey.remove(task.key());
+            dispatch();
+        }
+
+        if (failure != null) {
+            task.future().completeExceptionally(failure);
+        } else {
+            task.future().complete(null);
+        }
+    }
+
+    private record Task(String tenantId, String key, Runnable runnable, CompletableFuture<Void> future) {
+    }
+}
@@ -0,0 +1,26 @@
+package com.somesimplify.somesimplify.repository;
+
+import com.somesimplify.somesimplify.model.CaptionCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+@Repository
+public interface CaptionCacheRepository extends JpaRepository<CaptionCacheEntry, String> {
+
+    Optional<CaptionCacheEntry> findByCacheKey(String cacheKey);
+
+    /**
+     * Delete expired entries of all tenants
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM caption_cache_entry WHERE expires_at < :now", nativeQuery = true)
+    int deleteExpired(@Param("now") OffsetDateTime now);
+}
@@ -1,12 +1,52 @@
 package com.somesimplify.somesimplify.repository;
 
 import com.somesimplify.somesimplify.model.ContentFile;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 
 @Repository
 public interface ContentFileRepository extends JpaRepository<ContentFile, String> {
     List<ContentFile> findAllByTenantId(String tenantId);
+
+    /**
+     * Newest content files that no post has been generated for and that are not used in any post
+     */
+    @Query("""
+            select c from ContentFile c
+            where c.tenantId = :tenantId
+              and c.postGeneratedAt is null
+              and not exists (select p from Post p join p.contentFiles pc where pc = c)
+            order by c.createdAt desc
+            """)
+    List<ContentFile> findUnusedForGeneration(@Param("tenantId") String tenantId, Pageable pageable);
+
+    /**
+     * Mark the files that have no generated post yet and return their IDs. A file that another
+     * run marked first is left out, so it never gets a second draft. Must run in a transaction;
+     * the row locks make concurrent runs wait for each other.
+     */
+    @Query(value = """
+            UPDATE content_file SET post_generated_at = :generatedAt
+            WHERE id IN (:ids) AND post_generated_at IS NULL
+            RETURNING id
+            """, nativeQuery = true)
+    List<String> markPostGenerated(@Param("ids") List<String> ids, @Param("generatedAt") OffsetDateTime generatedAt);
+
+    @Transactional
+    @Modifying
+    @Query("update ContentFile c set c.contentHash = :contentHash where c.id = :id")
+    void saveContentHash(@Param("id") String id, @Param("contentHash") String contentHash);
+
+    @Transactional
+    @Modifying
+    @Query("update ContentFile c set c.modelImageS3Key = :modelImageS3Key where c.id = :id")
+    void saveModelImageS3Key(@Param("id") String id, @Param("modelImageS3Key") String modelImageS3Key);
 }
@@ -0,0 +1,134 @@
+package com.somesimplify.somesimplify.repository;
+
+import com.somesimplify.model.GenerationJobStatus;
+import com.somesimplify.somesimplify.model.GenerationJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The native queries are used while a job runs and are not limited to the current tenant.
+ */
+@Repository
+public interface GenerationJobRepository extends JpaRepository<GenerationJob, String> {
+
+    Optional<GenerationJob> findFirstByStatusIn(Collection<GenerationJobStatus> statuses);
+
+    /**
+     * Queue a job for the current tenant unless it already has one that is queued or running, and
+     * return the active job. The tenant row is locked first, so concurrent calls on any node
+     * wait for each other and only one of them creates a job.
+     */
+    @Transactional
+    default GenerationJob queueJobIfNoneActive(String tenantId, Collection<GenerationJobStatus> activeStatuses) {
+        lockTenant(tenantId);
+
+        return findFirstByStatusIn(activeStatuses).orElseGet(() -> {
+            GenerationJob job = new GenerationJob();
+            job.setStatus(GenerationJobStatus.QUEUED);
+            return save(job);
+        });
+    }
+
+    @Query(value = "SELECT id FROM tenant WHERE id = :tenantId FOR UPDATE", nativeQuery = true)
+    Optional<String> lockTenant(@Param("tenantId") String tenantId);
+
+    /**
+     * Claim a queued job for this node. Returns 0 if another node got it first or it was cancelled.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE generation_job
+            SET status = 'RUNNING', owner = :owner, heartbeat_at = :now, started_at = COALESCE(started_at, :now)
+            WHERE id = :id AND status = 'QUEUED'
+            """, nativeQuery = true)
+    int claim(@Param("id") String id, @Param("owner") String owner, @Param("now") OffsetDateTime now);
+
+    /**
+     * A job that is picked up again only sees the files that are still unused, so the posts
+     * generated before are added to the total.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE generation_job SET total_files = generated_posts + :remainingFiles WHERE id = :id",
+            nativeQuery = true)
+    void saveRemainingFiles(@Param("id") String id, @Param("remainingFiles") int remainingFiles);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE generation_job SET generated_posts = generated_posts + :posts WHERE id = :id",
+            nativeQuery = true)
+    void addGeneratedPosts(@Param("id") String id, @Param("posts") int posts);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE generation_job SET failed_files = failed_files + :files, error_message = :errorMessage
+            WHERE id = :id
+            """, nativeQuery = true)
+    void addFailedFiles(@Param("id") String id, @Param("files") int files, @Param("errorMessage") String errorMessage);
+
+    @Query(value = "SELECT COUNT(*) > 0 FROM generation_job WHERE id = :id AND status = 'CANCELLED'",
+            nativeQuery = true)
+    boolean isCancelled(@Param("id") String id);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE generation_job SET heartbeat_at = :now WHERE id IN (:ids) AND owner = :owner",
+            nativeQuery = true)
+    void heartbeat(@Param("ids") Collection<String> ids, @Param("owner") String owner, @Param("now") OffsetDateTime now);
+
+    /**
+     * Mark a running job as done. A job that was cancelled in the meantime stays cancelled.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE generation_job
+            SET status = :status, error_message = COALESCE(:errorMessage, error_message), finished_at = :now, owner = NULL
+            WHERE id = :id AND status = 'RUNNING'
+            """, nativeQuery = true)
+    void finish(@Param("id") String id, @Param("status") String status,
+                @Param("errorMessage") String errorMessage, @Param("now") OffsetDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE generation_job SET status = 'CANCELLED', finished_at = :now, owner = NULL
+            WHERE id = :id AND status IN ('QUEUED', 'RUNNING')
+            """, nativeQuery = true)
+    int cancel(@Param("id") String id, @Param("now") OffsetDateTime now);
+
+    /**
+     * Put running jobs back in the queue when their node has stopped sending heartbeats
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE generation_job SET status = 'QUEUED', owner = NULL, failed_files = 0
+            WHERE status = 'RUNNING' AND heartbeat_at < :staleBefore
+            """, nativeQuery = true)
+    int requeueStale(@Param("staleBefore") OffsetDateTime staleBefore);
+
+    @Query(value = """
+            SELECT id AS jobId, tenant_id AS tenantId FROM generation_job
+            WHERE status = 'QUEUED' AND created_at < :queuedBefore
+            ORDER BY created_at
+            """, nativeQuery = true)
+    List<QueuedJob> findQueuedBefore(@Param("queuedBefore") OffsetDateTime queuedBefore);
+
+    interface QueuedJob {
+        String getJobId();
+
+        String getTenantId();
+    }
+}
@@ -0,0 +1,114 @@
+package com.somesimplify.somesimplify.repository;
+
+import com.somesimplify.somesimplify.model.ImageGenerationJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The native queries work across tenants and are not limited to the current one.
+ */
+@Repository
+public interface ImageGenerationJobRepository extends JpaRepository<ImageGenerationJob, String> {
+
+    /**
+     * Queue a job for the day for every tenant that has image generation turned on and a
+     * profile to build the prompt from. Tenants that already have a job for the day are skipped,
+     * so every node may run this.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO image_generation_job (id, tenant_id, job_date, status, attempts, generated_images,
+                                              created_at, updated_at)
+            SELECT gen_random_uuid()::text, t.id, :jobDate, 'QUEUED', 0, 0, :now, :now
+            FROM tenant t
+            JOIN tenant_profile p ON p.tenant_id = t.id
+            WHERE t.image_generation_enabled = true
+            ON CONFLICT (tenant_id, job_date) DO NOTHING
+            """, nativeQuery = true)
+    int enqueueForEnabledTenants(@Param("jobDate") LocalDate jobDate, @Param("now") OffsetDateTime now);
+
+    /**
+     * Locks queued jobs, and running jobs whose node let the lease expire, oldest first. Rows
+     * locked by another node are skipped.
+     */
+    @Query(value = """
+            SELECT j.id AS jobId, j.tenant_id AS tenantId
+            FROM image_generation_job j
+            WHERE (j.status = 'QUEUED' OR (j.status = 'RUNNING' AND j.lease_expires_at < :now))
+              AND j.attempts < :maxAttempts
+            ORDER BY j.created_at
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<QueuedImageJob> lockQueuedJobs(
+            @Param("now") OffsetDateTime now,
+            @Param("maxAttempts") int maxAttempts,
+            @Param("limit") int limit
+    );
+
+    @Modifying
+    @Query(value = """
+            UPDATE image_generation_job
+            SET status = 'RUNNING', lease_owner = :owner, lease_expires_at = :leaseExpiresAt,
+                started_at = :now, attempts = attempts + 1
+            WHERE id IN (:ids)
+            """, nativeQuery = true)
+    int lease(
+            @Param("ids") Collection<String> ids,
+            @Param("owner") String owner,
+            @Param("leaseExpiresAt") OffsetDateTime leaseExpiresAt,
+            @Param("now") OffsetDateTime now
+    );
+
+    /**
+     * Record the outcome of a job, but only if the lease is still held by {@code owner}
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE image_generation_job
+            SET status = :status, finished_at = :now, duration_millis = :durationMillis,
+                generated_images = :generatedImages, error_message = :errorMessage,
+                lease_owner = NULL, lease_expires_at = NULL
+            WHERE id = :id AND lease_owner = :owner
+            """, nativeQuery = true)
+    int finish(
+            @Param("id") String id,
+            @Param("owner") String owner,
+            @Param("status") String status,
+            @Param("durationMillis") long durationMillis,
+            @Param("generatedImages") int generatedImages,
+            @Param("errorMessage") String errorMessage,
+            @Param("now") OffsetDateTime now
+    );
+
+    /**
+     * Fail running jobs whose node let the lease expire on their last attempt. They are not
+     * claimed again, so without this they would stay RUNNING.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE image_generation_job
+            SET status = 'FAILED', finished_at = :now, error_message = :errorMessage,
+                lease_owner = NULL, lease_expires_at = NULL
+            WHERE status = 'RUNNING' AND lease_expires_at < :now AND attempts >= :maxAttempts
+            """, nativeQuery = true)
+    int failAbandonedJobs(
+            @Param("now") OffsetDateTime now,
+            @Param("maxAttempts") int maxAttempts,
+            @Param("errorMessage") String errorMessage
+    );
+
+    interface QueuedImageJob {
+        String getJobId();
+
+        String getTenantId();
+    }
+}
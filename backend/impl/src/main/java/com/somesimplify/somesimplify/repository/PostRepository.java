@@ -3,19 +3,242 @@ package com.somesimplify.somesimplify.repository;
 import com.somesimplify.model.PostStatus;
 import com.somesimplify.somesimplify.model.Post;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface PostRepository extends JpaRepository<Post, String> {
 
-    @Query("SELECT p FROM Post p WHERE p.status = :status AND p.publishAt <= :publishAt")
-    List<Post> findPostsReadyForPublishing(
+    /**
+     * Locks due posts across all tenants for publishing. Native so the Hibernate tenant filter is
+     * not applied, and joined with the active connection so tenants without one are skipped in
+     * the database. Only posts that include the platform are locked, so posts for other
+     * platforms never take up a claim. Posts left in PUBLISHING by a node whose lease has expired are picked up
+     * again. Rows locked by another node are skipped, so concurrent callers never get the same post.
+     */
+    @Query(value = """
+            SELECT p.id AS postId, p.tenant_id AS tenantId
+            FROM post p
+            JOIN social_media_connection c
+              ON c.tenant_id = p.tenant_id AND c.platform = :platform AND c.is_active = true
+            WHERE :platform = ANY(p.platforms)
+              AND ((p.status = 'SCHEDULED' AND p.publish_at <= :now
+                    AND (p.next_attempt_at IS NULL OR p.next_attempt_at <= :now)
+                    AND (p.lease_expires_at IS NULL OR p.lease_expires_at < :now))
+                   OR (p.status = 'PUBLISHING' AND p.lease_expires_at < :now))
+            ORDER BY p.publish_at
+            LIMIT :limit
+            FOR UPDATE OF p SKIP LOCKED
+            """, nativeQuery = true)
+    List<DuePost> lockDuePostsAcrossTenants(
+            @Param("platform") String platform,
+            @Param("now") OffsetDateTime now,
+            @Param("limit") int limit
+    );
+
+    /**
+     * Locks scheduled posts for the platform that are due before {@code horizon} and have no
+     * carousel container yet, so their containers can be created ahead of time. Posts that are already leased by
+     * another node are skipped.
+     */
+    @Query(value = """
+            SELECT p.id AS postId, p.tenant_id AS tenantId
+            FROM post p
+            JOIN social_media_connection c
+              ON c.tenant_id = p.tenant_id AND c.platform = :platform AND c.is_active = true
+            WHERE :platform = ANY(p.platforms)
+              AND p.status = 'SCHEDULED' AND p.publish_at > :now AND p.publish_at <= :horizon
+              AND p.instagram_carousel_container_id IS NULL
+              AND (p.lease_expires_at IS NULL OR p.lease_expires_at < :now)
+            ORDER BY p.publish_at
+            LIMIT :limit
+            FOR UPDATE OF p SKIP LOCKED
+            """, nativeQuery = true)
+    List<DuePost> lockPostsForStagingAcrossTenants(
+            @Param("platform") String platform,
+            @Param("now") OffsetDateTime now,
+            @Param("horizon") OffsetDateTime horizon,
+            @Param("limit") int limit
+    );
+
+    /**
+     * Leases scheduled posts while their containers are staged. The status stays SCHEDULED and
+     * the version is not bumped, but the posts are not claimed for publishing until the lease
+     * is released or expires.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE post SET lease_owner = :owner, lease_expires_at = :leaseExpiresAt
+            WHERE id IN (:ids)
+            """, nativeQuery = true)
+    int leaseForStaging(
+            @Param("ids") Collection<String> ids,
+            @Param("owner") String owner,
+            @Param("leaseExpiresAt") OffsetDateTime leaseExpiresAt
+    );
+
+    @Modifying
+    @Query(value = """
+            UPDATE post SET lease_owner = NULL, lease_expires_at = NULL
+            WHERE id = :id AND lease_owner = :owner AND status = 'SCHEDULED'
+            """, nativeQuery = true)
+    int releaseStagingLease(@Param("id") String id, @Param("owner") String owner);
+
+    /**
+     * Scheduled posts across all tenants that become due before {@code horizon}, with the time
+     * they are due: the publish time, or the next retry time if that is later.
+     */
+    @Query(value = """
+            SELECT p.id AS postId,
+                   CAST(EXTRACT(EPOCH FROM GREATEST(p.publish_at, COALESCE(p.next_attempt_at, p.publish_at))) * 1000
+                        AS BIGINT) AS dueAtEpochMilli
+            FROM post p
+            JOIN social_media_connection c
+              ON c.tenant_id = p.tenant_id AND c.platform = :platform AND c.is_active = true
+            WHERE p.status = 'SCHEDULED' AND p.publish_at <= :horizon
+              AND (p.next_attempt_at IS NULL OR p.next_attempt_at <= :horizon)
+            """, nativeQuery = true)
+    List<UpcomingPost> findUpcomingPostsAcrossTenants(
+            @Param("platform") String platform,
+            @Param("horizon") OffsetDateTime horizon
+    );
+
+    @Modifying
+    @Query(value = """
+            UPDATE post
+            SET status = 'PUBLISHING', lease_owner = :owner, lease_expires_at = :leaseExpiresAt,
+                version = version + 1
+            WHERE id IN (:ids)
+            """, nativeQuery = true)
+    int leaseForPublishing(
+            @Param("ids") Collection<String> ids,
+            @Param("owner") String owner,
+            @Param("leaseExpiresAt") OffsetDateTime leaseExpiresAt
+    );
+
+    /**
+     * Moves a post out of PUBLISHING and records the outcome of the attempt, but only if the
+     * lease is still held by {@code owner}. Returns 0 if the lease expired and another node took
+     * the post over.
+     */
+    @Modifying
+    @Query("""
+            UPDATE Post p
+            SET p.status = :status, p.leaseOwner = NULL, p.leaseExpiresAt = NULL,
+                p.publishAttempts = :publishAttempts, p.nextAttemptAt = :nextAttemptAt,
+                p.lastPublishErrorCode = :errorCode, p.version = p.version + 1
+            WHERE p.id = :id AND p.leaseOwner = :owner
+              AND p.status = com.somesimplify.model.PostStatus.PUBLISHING
+            """)
+    int releaseLease(
+            @Param("id") String id,
+            @Param("owner") String owner,
             @Param("status") PostStatus status,
-            @Param("publishAt") OffsetDateTime publishAt
+            @Param("publishAttempts") int publishAttempts,
+            @Param("nextAttemptAt") OffsetDateTime nextAttemptAt,
+            @Param("errorCode") String errorCode
+    );
+
+    /**
+     * Loads posts with their content files and item container checkpoints. The two collections
+     * are fetched in separate queries in one transaction, since fetching the content file bag
+     * together with the map would repeat every content file once per checkpoint.
+     */
+    @Transactional(readOnly = true)
+    default List<Post> findAllWithContentFilesByIdIn(Collection<String> ids) {
+        List<Post> posts = findAllFetchContentFilesByIdIn(ids);
+        if (!posts.isEmpty()) {
+            findAllFetchInstagramItemContainerIdsByIdIn(ids);
+        }
+        return posts;
+    }
+
+    @Query("SELECT DISTINCT p FROM Post p LEFT JOIN FETCH p.contentFiles WHERE p.id IN :ids")
+    List<Post> findAllFetchContentFilesByIdIn(@Param("ids") Collection<String> ids);
+
+    @Query("SELECT DISTINCT p FROM Post p LEFT JOIN FETCH p.instagramItemContainerIds WHERE p.id IN :ids")
+    List<Post> findAllFetchInstagramItemContainerIdsByIdIn(@Param("ids") Collection<String> ids);
+
+    // Instagram publish checkpoints. These only touch their own columns and do not bump the
+    // version, so they never conflict with user edits or the publishing lease.
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            INSERT INTO post_instagram_item_container (post_id, content_file_id, container_id)
+            VALUES (:postId, :contentFileId, :containerId)
+            ON CONFLICT DO NOTHING
+            """, nativeQuery = true)
+    void saveInstagramItemContainer(
+            @Param("postId") String postId,
+            @Param("contentFileId") String contentFileId,
+            @Param("containerId") String containerId
     );
+
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE Post p SET p.instagramContainersCreatedAt = :createdAt
+            WHERE p.id = :id AND p.instagramContainersCreatedAt IS NULL
+            """)
+    void saveInstagramContainersCreatedAt(@Param("id") String id, @Param("createdAt") OffsetDateTime createdAt);
+
+    /**
+     * Checkpoint the carousel container, but only if the caption is still the one it was built
+     * with. Returns 0 if the caption was edited in the meantime.
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE Post p SET p.instagramCarouselContainerId = :containerId
+            WHERE p.id = :id AND COALESCE(p.text, '') = :text
+            """)
+    int saveInstagramCarouselContainerId(
+            @Param("id") String id,
+            @Param("containerId") String containerId,
+            @Param("text") String text
+    );
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Post p SET p.instagramMediaId = :mediaId WHERE p.id = :id")
+    void saveInstagramMediaId(@Param("id") String id, @Param("mediaId") String mediaId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM post_instagram_item_container WHERE post_id = :id", nativeQuery = true)
+    void deleteInstagramItemContainers(@Param("id") String id);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM post_instagram_item_container WHERE post_id = :id AND container_id = :containerId",
+            nativeQuery = true)
+    void deleteInstagramItemContainer(@Param("id") String id, @Param("containerId") String containerId);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE Post p SET p.instagramCarouselContainerId = NULL, p.instagramContainersCreatedAt = NULL
+            WHERE p.id = :id
+            """)
+    void clearInstagramContainers(@Param("id") String id);
+
+    interface DuePost {
+        String getPostId();
+
+        String getTenantId();
+    }
+
+    interface UpcomingPost {
+        String getPostId();
+
+        Long getDueAtEpochMilli();
+    }
 }
@@ -0,0 +1,50 @@
+package com.somesimplify.somesimplify.repository;
+
+import com.somesimplify.somesimplify.model.TenantTokenUsage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+/**
+ * The native queries are used by the token accounting and are not limited to the current tenant.
+ */
+@Repository
+public interface TenantTokenUsageRepository extends JpaRepository<TenantTokenUsage, String> {
+
+    /**
+     * Add usage to a tenant's day and return the day's total tokens, including what other nodes
+     * have added.
+     */
+    @Transactional
+    @Query(value = """
+            INSERT INTO tenant_token_usage (id, tenant_id, usage_date, prompt_tokens, completion_tokens, calls,
+                                            latency_millis, created_at, updated_at)
+            VALUES (gen_random_uuid()::text, :tenantId, :usageDate, :promptTokens, :completionTokens, :calls,
+                    :latencyMillis, :now, :now)
+            ON CONFLICT (tenant_id, usage_date) DO UPDATE
+            SET prompt_tokens = tenant_token_usage.prompt_tokens + excluded.prompt_tokens,
+                completion_tokens = tenant_token_usage.completion_tokens + excluded.completion_tokens,
+                calls = tenant_token_usage.calls + excluded.calls,
+                latency_millis = tenant_token_usage.latency_millis + excluded.latency_millis,
+                updated_at = excluded.updated_at
+            RETURNING prompt_tokens + completion_tokens
+            """, nativeQuery = true)
+    long addUsage(@Param("tenantId") String tenantId,
+                  @Param("usageDate") LocalDate usageDate,
+                  @Param("promptTokens") long promptTokens,
+                  @Param("completionTokens") long completionTokens,
+                  @Param("calls") long calls,
+                  @Param("latencyMillis") long latencyMillis,
+                  @Param("now") OffsetDateTime now);
+
+    @Query(value = """
+            SELECT COALESCE(SUM(prompt_tokens + completion_tokens), 0) FROM tenant_token_usage
+            WHERE tenant_id = :tenantId AND usage_date = :usageDate
+            """, nativeQuery = true)
+    long findTotalTokens(@Param("tenantId") String tenantId, @Param("usageDate") LocalDate usageDate);
+}
@@ -0,0 +1,162 @@
+package com.somesimplify.somesimplify.resilience;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+
+/**
+ * Count-based circuit breaker. It opens when the failure rate of the last {@code windowSize}
+ * calls reaches the threshold, rejects calls while open, and then lets a few trial calls through
+ * to decide whether to close again or stay open for another round.
+ * <p>
+ * Every state change starts a new generation, and a permitted call reports its outcome with the
+ * generation it was given. Outcomes of calls from an earlier generation are ignored, so a call
+ * that started before the breaker opened cannot count as a trial call.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} when the call is not permitted
+     */
+    public static final long REJECTED = -1;
+
+    private final String name;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    // Ring buffer of the last outcomes, true for a failure
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAtNanos;
+    private int halfOpenInFlight;
+    private int halfOpenSucceeded;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration, int halfOpenCalls) {
+        this.name = name;
+        this.outcomes = new boolean[Math.max(windowSize, 1)];
+        this.minimumCalls = Math.min(Math.max(minimumCalls, 1), outcomes.length);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+    }
+
+    /**
+     * Returns the generation of the permitted call, or {@link #REJECTED}. Every permitted call must
+     * be followed by exactly one of {@link #onSuccess(long)}, {@link #onFailure(long)} or
+     * {@link #onIgnored(long)} with that generation.
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openNanos) {
+                return REJECTED;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight + halfOpenSucceeded >= halfOpenCalls) {
+                return REJECTED;
+            }
+            halfOpenInFlight++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long callGeneration) {
+        if (callGeneration != generation) {
+            return;
+        }
+
+        switch (state) {
+            case CLOSED -> record(false);
+            case HALF_OPEN -> {
+                halfOpenInFlight--;
+                if (++halfOpenSucceeded >= halfOpenCalls) {
+                    transitionTo(State.CLOSED);
+                }
+            }
+            case OPEN -> {
+            }
+        }
+    }
+
+    public synchronized void onFailure(long callGeneration) {
+        if (callGeneration != generation) {
+            return;
+        }
+
+        switch (state) {
+            case CLOSED -> {
+                record(true);
+                if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+                    transitionTo(State.OPEN);
+                }
+            }
+            case HALF_OPEN -> transitionTo(State.OPEN);
+            case OPEN -> {
+            }
+        }
+    }
+
+    /**
+     * The call was given up by the caller, e.g. the losing one of two hedged calls, and says
+     * nothing about the health of the provider.
+     */
+    public synchronized void onIgnored(long callGeneration) {
+        if (callGeneration == generation && state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            log.warn("Circuit breaker {} opened after {} failures in {} calls", name, failures, recorded);
+            openedAtNanos = System.nanoTime();
+        } else {
+            log.info("Circuit breaker {} is now {}", name, newState);
+        }
+
+        state = newState;
+        generation++;
+        halfOpenInFlight = 0;
+        halfOpenSucceeded = 0;
+        if (newState == State.CLOSED) {
+            next = 0;
+            recorded = 0;
+            failures = 0;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.somesimplify.somesimplify.resilience;
+
+import com.somesimplify.somesimplify.config.ChatModelConfig;
+import com.somesimplify.somesimplify.exception.ModelUnavailableException;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import com.somesimplify.somesimplify.service.TokenUsageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Wraps the chat model with a deadline per call, a circuit breaker and an adaptive concurrency
+ * limit. Calls can optionally be hedged: if the first attempt has not answered after the hedge
+ * delay, a second one is started and whichever answers first is used. The token usage of every
+ * response is recorded for the current tenant, and calls are refused once its daily budget is used.
+ */
+@Slf4j
+public class ResilientChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ChatModelConfig config;
+    private final TokenUsageService tokenUsageService;
+    private final CircuitBreaker circuitBreaker;
+    private final AimdConcurrencyLimit concurrencyLimit;
+    private final ExecutorService callExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("chat-model-", 0).factory());
+
+    private final Counter circuitOpenRejections;
+    private final Counter concurrencyLimitRejections;
+    private final Counter timeouts;
+    private final Counter hedgesStarted;
+    private final Counter hedgesWon;
+    private final Timer successfulCalls;
+    private final Timer failedCalls;
+
+    public ResilientChatModel(ChatModel delegate, ChatModelConfig config, TokenUsageService tokenUsageService,
+                              MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.config = config;
+        this.tokenUsageService = tokenUsageService;
+
+        ChatModelConfig.CircuitBreaker breakerConfig = config.getCircuitBreaker();
+        this.circuitBreaker = new CircuitBreaker("chat-model", breakerConfig.getWindowSize(),
+                breakerConfig.getMinimumCalls(), breakerConfig.getFailureRateThreshold(),
+                breakerConfig.getOpenDuration(), breakerConfig.getHalfOpenCalls());
+
+        ChatModelConfig.Concurrency concurrencyConfig = config.getConcurrency();
+        this.concurrencyLimit = new AimdConcurrencyLimit(concurrencyConfig.getInitialLimit(),
+                concurrencyConfig.getMinLimit(), concurrencyConfig.getMaxLimit(),
+                concurrencyConfig.getBackoffRatio(), concurrencyConfig.getLatencyThreshold());
+
+        Gauge.builder("ai.chat.circuit_breaker.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("0 closed, 1 open, 2 half open")
+                .register(meterRegistry);
+        Gauge.builder("ai.chat.concurrency.limit", concurrencyLimit, AimdConcurrencyLimit::getLimit)
+                .register(meterRegistry);
+        Gauge.builder("ai.chat.concurrency.in_flight", concurrencyLimit, AimdConcurrencyLimit::getInFlight)
+                .register(meterRegistry);
+
+        this.circuitOpenRejections = Counter.builder("ai.chat.rejections").tag("reason", "circuit_open")
+                .register(meterRegistry);
+        this.concurrencyLimitRejections = Counter.builder("ai.chat.rejections").tag("reason", "concurrency_limit")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("ai.chat.rejections").tag("reason", "timeout")
+                .register(meterRegistry);
+        this.hedgesStarted = Counter.builder("ai.chat.hedges").tag("result", "started").register(meterRegistry);
+        this.hedgesWon = Counter.builder("ai.chat.hedges").tag("result", "won").register(meterRegistry);
+        this.successfulCalls = Timer.builder("ai.chat.calls").tag("outcome", "success").register(meterRegistry);
+        this.failedCalls = Timer.builder("ai.chat.calls").tag("outcome", "failure").register(meterRegistry);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String tenantId = TenantContext.getTenantId();
+        tokenUsageService.checkBudget(tenantId);
+
+        long deadlineNanos = System.nanoTime() + config.getTimeout().toNanos();
+        List<Attempt> attempts = new ArrayList<>();
+        attempts.add(start(prompt, tenantId, acquire(config.getConcurrency().getMaxWait())));
+
+        try {
+            if (config.getHedging().isEnabled()) {
+                try {
+                    return attempts.get(0).result.get(config.getHedging().getDelay().toNanos(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    Permit hedgePermit = tryAcquireForHedge();
+                    if (hedgePermit != null) {
+                        hedgesStarted.increment();
+                        attempts.add(start(prompt, tenantId, hedgePermit));
+                    }
+                }
+            }
+
+            ChatResponse response = firstSuccessful(attempts)
+                    .get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            if (attempts.size() > 1 && attempts.get(1).result.getNow(null) == response) {
+                hedgesWon.increment();
+            }
+            return response;
+
+        } catch (TimeoutException e) {
+            attempts.forEach(Attempt::timeOut);
+            timeouts.increment();
+            throw new ModelUnavailableException("Chat model did not answer within " + config.getTimeout(), e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new ModelUnavailableException("Chat model call failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModelUnavailableException("Interrupted while waiting for the chat model", e);
+        } finally {
+            // Gives up the attempts that are still running, e.g. the slower of two hedged ones
+            attempts.forEach(Attempt::abandon);
+        }
+    }
+
+    /**
+     * Streams hold their permit until the stream ends. The deadline applies to the wait for each
+     * chunk, so a long answer is not cut off as long as the model keeps producing it. Every chunk
+     * carries the usage so far, so the last one seen is recorded, also when the stream is cancelled.
+     */
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            String tenantId = TenantContext.getTenantId();
+            tokenUsageService.checkBudget(tenantId);
+
+            Permit permit = acquire(config.getConcurrency().getMaxWait());
+            AtomicBoolean firstChunk = new AtomicBoolean(true);
+            AtomicReference<Usage> lastUsage = new AtomicReference<>();
+            return delegate.stream(prompt)
+                    .timeout(config.getTimeout())
+                    .doOnNext(response -> {
+                        // Time to first chunk is what the concurrency limit reacts to
+                        if (firstChunk.compareAndSet(true, false)) {
+                            permit.latencyNanos = System.nanoTime() - permit.startedAtNanos;
+                        }
+                        if (hasUsage(response)) {
+                            lastUsage.set(response.getMetadata().getUsage());
+                        }
+                    })
+                    .doFinally(signal -> {
+                        if (lastUsage.get() != null) {
+                            tokenUsageService.record(tenantId, lastUsage.get(), System.nanoTime() - permit.startedAtNanos);
+                        }
+                    })
+                    .doOnComplete(permit::success)
+                    .doOnError(e -> {
+                        if (e instanceof TimeoutException) {
+                            timeouts.increment();
+                        }
+                        permit.failure();
+                    })
+                    .doOnCancel(permit::ignore);
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    public void shutdown() {
+        callExecutor.shutdownNow();
+    }
+
+    private Permit acquire(Duration maxWait) {
+        long generation = circuitBreaker.tryAcquire();
+        if (generation == CircuitBreaker.REJECTED) {
+            circuitOpenRejections.increment();
+            throw new ModelUnavailableException("Chat model is unavailable, circuit breaker is "
+                    + circuitBreaker.getState());
+        }
+
+        boolean acquired;
+        try {
+            acquired = concurrencyLimit.tryAcquire(maxWait);
+        } catch (InterruptedException e) {
+            circuitBreaker.onIgnored(generation);
+            Thread.currentThread().interrupt();
+            throw new ModelUnavailableException("Interrupted while waiting for the chat model", e);
+        }
+
+        if (!acquired) {
+            circuitBreaker.onIgnored(generation);
+            concurrencyLimitRejections.increment();
+            throw new ModelUnavailableException("Chat model is at its concurrency limit of "
+                    + (int) concurrencyLimit.getLimit());
+        }
+        return new Permit(generation);
+    }
+
+    private Permit tryAcquireForHedge() {
+        try {
+            return acquire(Duration.ZERO);
+        } catch (ModelUnavailableException e) {
+            // No spare capacity for a hedge, keep waiting for the first attempt
+            return null;
+        }
+    }
+
+    private Attempt start(Prompt prompt, String tenantId, Permit permit) {
+        Attempt attempt = new Attempt(permit);
+        attempt.future = callExecutor.submit(() -> {
+            try {
+                ChatResponse response = delegate.call(prompt);
+                permit.latencyNanos = System.nanoTime() - permit.startedAtNanos;
+                // A hedged call that loses is billed too, so its usage is recorded as well
+                tokenUsageService.record(tenantId, hasUsage(response) ? response.getMetadata().getUsage() : null,
+                        permit.latencyNanos);
+                permit.success();
+                attempt.result.complete(response);
+            } catch (Exception e) {
+                permit.failure();
+                attempt.result.completeExceptionally(e);
+            }
+        });
+        return attempt;
+    }
+
+    private static boolean hasUsage(ChatResponse response) {
+        return response != null && response.getMetadata() != null && response.getMetadata().getUsage() != null;
+    }
+
+    private static CompletableFuture<ChatResponse> firstSuccessful(List<Attempt> attempts) {
+        if (attempts.size() == 1) {
+            return attempts.get(0).result;
+        }
+
+        CompletableFuture<ChatResponse> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (Attempt attempt : attempts) {
+            attempt.result.whenComplete((response, e) -> {
+                if (e == null) {
+                    first.complete(response);
+                } else if (failed.incrementAndGet() == attempts.size()) {
+                    first.completeExceptionally(e);
+                }
+            });
+        }
+        return first;
+    }
+
+    /**
+     * A slot granted by the circuit breaker and the concurrency limit. The outcome is recorded
+     * once; whatever happens to the call afterwards, e.g. it answering after it timed out, is
+     * ignored.
+     */
+    private class Permit {
+        private final long generation;
+        private final long startedAtNanos = System.nanoTime();
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private volatile long latencyNanos;
+
+        private Permit(long generation) {
+            this.generation = generation;
+        }
+
+        private void success() {
+            if (recorded.compareAndSet(false, true)) {
+                long latency = latencyNanos > 0 ? latencyNanos : System.nanoTime() - startedAtNanos;
+                circuitBreaker.onSuccess(generation);
+                concurrencyLimit.onSuccess(latency);
+                successfulCalls.record(System.nanoTime() - startedAtNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void failure() {
+            if (recorded.compareAndSet(false, true)) {
+                circuitBreaker.onFailure(generation);
+                concurrencyLimit.onDropped();
+                failedCalls.record(System.nanoTime() - startedAtNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void ignore() {
+            if (recorded.compareAndSet(false, true)) {
+                circuitBreaker.onIgnored(generation);
+                concurrencyLimit.onIgnored();
+            }
+        }
+    }
+
+    private static class Attempt {
+        private final Permit permit;
+        private final CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        private Future<?> future;
+
+        private Attempt(Permit permit) {
+            this.permit = permit;
+        }
+
+        private void timeOut() {
+            permit.failure();
+            future.cancel(true);
+        }
+
+        private void abandon() {
+            permit.ignore();
+            future.cancel(true);
+        }
+    }
+}
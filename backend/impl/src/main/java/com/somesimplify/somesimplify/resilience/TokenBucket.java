@@ -0,0 +1,56 @@
+package com.somesimplify.somesimplify.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free token bucket. The state is swapped with compare-and-set, so callers never block
+ * each other; a caller that finds too few tokens is told how long to wait instead.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private volatile double refillPerNano;
+    private final AtomicReference<State> state;
+
+    public TokenBucket(double capacity, double refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.state = new AtomicReference<>(new State(capacity, System.nanoTime()));
+    }
+
+    /**
+     * Take {@code permits} tokens if they are available. Returns 0 if they were taken, otherwise
+     * the number of nanoseconds until enough tokens will have been refilled.
+     */
+    public long tryAcquire(double permits) {
+        while (true) {
+            State current = state.get();
+            long now = System.nanoTime();
+            double tokens = refilledTokens(current, now);
+
+            if (tokens < permits) {
+                return (long) Math.ceil((permits - tokens) / refillPerNano);
+            }
+
+            if (state.compareAndSet(current, new State(tokens - permits, now))) {
+                return 0;
+            }
+        }
+    }
+
+    public double getAvailableTokens() {
+        return refilledTokens(state.get(), System.nanoTime());
+    }
+
+    public void setRefillPerSecond(double refillPerSecond) {
+        this.refillPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private double refilledTokens(State current, long now) {
+        return Math.min(capacity, current.tokens() + (now - current.refilledAtNanos()) * refillPerNano);
+    }
+
+    private record State(double tokens, long refilledAtNanos) {
+    }
+}
@@ -4,6 +4,7 @@ import com.somesimplify.api.InstagramApi;
 import com.somesimplify.model.GetInstagramAuthUrl200Response;
 import com.somesimplify.model.SocialMediaConnectionTO;
 import com.somesimplify.somesimplify.config.ApplicationConfig;
+import com.somesimplify.somesimplify.exception.InstagramRateLimitedException;
 import com.somesimplify.somesimplify.mapper.SocialMediaConnectionMapper;
 import com.somesimplify.somesimplify.model.SocialMediaConnection;
 import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
@@ -53,6 +54,16 @@ public class InstagramApiImpl implements InstagramApi {
 
             return new ResponseEntity<>(headers, HttpStatus.FOUND);
 
+        } catch (InstagramRateLimitedException e) {
+            log.warn("Instagram OAuth callback was rate limited, retry after {}", e.getRetryAfter());
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setLocation(URI.create(
+                    applicationConfig.getFrontendUrl() + "/settings?instagram=rate-limited"
+            ));
+
+            return new ResponseEntity<>(headers, HttpStatus.FOUND);
+
         } catch (Exception e) {
             log.error("Instagram OAuth callback failed: {}", e.getMessage(), e);
 
@@ -1,18 +1,26 @@
 package com.somesimplify.somesimplify.rest;
 
 import com.somesimplify.api.PostApi;
+import com.somesimplify.model.GenerationJobTO;
 import com.somesimplify.model.GetSuggestedPublishDate200Response;
 import com.somesimplify.model.PostStatus;
 import com.somesimplify.model.PostTO;
 import com.somesimplify.model.UpdatePostCommand;
+import com.somesimplify.somesimplify.mapper.GenerationJobMapper;
 import com.somesimplify.somesimplify.mapper.PostMapper;
 import com.somesimplify.somesimplify.model.Post;
+import com.somesimplify.somesimplify.service.CaptionStreamService;
+import com.somesimplify.somesimplify.service.GenerationJobService;
 import com.somesimplify.somesimplify.service.PostService;
 import com.somesimplify.somesimplify.service.S3Service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
@@ -26,6 +34,9 @@ public class PostApiImpl implements PostApi {
     private final PostService postService;
     private final PostMapper postMapper;
     private final S3Service s3Service;
+    private final CaptionStreamService captionStreamService;
+    private final GenerationJobService generationJobService;
+    private final GenerationJobMapper generationJobMapper;
 
     @Override
     public ResponseEntity<List<PostTO>> getPosts(LocalDate fromDate, LocalDate toDate, PostStatus status) {
@@ -72,6 +83,14 @@ public class PostApiImpl implements PostApi {
         return ResponseEntity.ok(mapPostWithUrls(updatedPost));
     }
 
+    /**
+     * Not part of the OpenAPI spec, since the generated interface can not return an SseEmitter
+     */
+    @PostMapping(value = "/posts/{id}/caption/regenerate", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter regeneratePostCaption(@PathVariable String id) {
+        return captionStreamService.regenerateCaption(id);
+    }
+
     @Override
     public ResponseEntity<GetSuggestedPublishDate200Response> getSuggestedPublishDate() {
         OffsetDateTime suggestedDate = postService.getSuggestedPublishDate();
@@ -79,4 +98,19 @@ public class PostApiImpl implements PostApi {
         response.setSuggestedDate(suggestedDate);
         return ResponseEntity.ok(response);
     }
+
+    @Override
+    public ResponseEntity<GenerationJobTO> startGenerationJob() {
+        return ResponseEntity.accepted().body(generationJobMapper.toGenerationJobTO(generationJobService.startJob()));
+    }
+
+    @Override
+    public ResponseEntity<GenerationJobTO> getGenerationJob(String id) {
+        return ResponseEntity.ok(generationJobMapper.toGenerationJobTO(generationJobService.getJob(id)));
+    }
+
+    @Override
+    public ResponseEntity<GenerationJobTO> cancelGenerationJob(String id) {
+        return ResponseEntity.ok(generationJobMapper.toGenerationJobTO(generationJobService.cancelJob(id)));
+    }
 }
@@ -0,0 +1,179 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.GenerationConfig;
+import com.somesimplify.somesimplify.model.CaptionCacheEntry;
+import com.somesimplify.somesimplify.model.ContentFile;
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import com.somesimplify.somesimplify.repository.CaptionCacheRepository;
+import com.somesimplify.somesimplify.repository.ContentFileRepository;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import com.somesimplify.somesimplify.utils.HashUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reuses generated captions for the same image, prompt and model.
+ * <p>
+ * Entries are keyed by the SHA-256 of the image content, the rendered prompt and the model ID,
+ * and kept per tenant for {@code generation.caption-cache.ttl}. Recently used entries are also
+ * kept in memory, in front of the caption_cache_entry table. Tenants can opt out with
+ * {@link Tenant#getCaptionCacheEnabled()}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CaptionCacheService {
+
+    private final CaptionCacheRepository captionCacheRepository;
+    private final ContentFileRepository contentFileRepository;
+    private final TenantRepository tenantRepository;
+    private final S3Service s3Service;
+    private final ChatModel chatModel;
+    private final GenerationConfig generationConfig;
+    private final MeterRegistry meterRegistry;
+
+    private Map<String, CachedCaption> memoryCache;
+    private Counter memoryHits;
+    private Counter databaseHits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        int maxMemoryEntries = generationConfig.getCaptionCache().getMaxMemoryEntries();
+        memoryCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCaption> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+
+        memoryHits = lookupCounter("memory_hit");
+        databaseHits = lookupCounter("database_hit");
+        misses = lookupCounter("miss");
+        Gauge.builder("caption.cache.hit_ratio", this, CaptionCacheService::getHitRatio)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The cached caption for the image and prompt, if there is one that has not expired
+     */
+    public Optional<String> get(ContentFile contentFile, String prompt) {
+        String tenantId = TenantContext.getTenantId();
+        if (!isEnabled(tenantId)) {
+            return Optional.empty();
+        }
+
+        String cacheKey = cacheKey(contentFile, prompt);
+        String memoryKey = tenantId + ":" + cacheKey;
+        OffsetDateTime now = OffsetDateTime.now();
+
+        CachedCaption cached = getFromMemory(memoryKey);
+        if (cached != null && cached.expiresAt().isAfter(now)) {
+            memoryHits.increment();
+            return Optional.of(cached.caption());
+        }
+
+        Optional<CaptionCacheEntry> entry = captionCacheRepository.findByCacheKey(cacheKey)
+                .filter(existing -> existing.getExpiresAt().isAfter(now));
+        if (entry.isPresent()) {
+            databaseHits.increment();
+            putInMemory(memoryKey, new CachedCaption(entry.get().getCaption(), entry.get().getExpiresAt()));
+            return Optional.of(entry.get().getCaption());
+        }
+
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(ContentFile contentFile, String prompt, String caption) {
+        String tenantId = TenantContext.getTenantId();
+        if (!isEnabled(tenantId)) {
+            return;
+        }
+
+        String cacheKey = cacheKey(contentFile, prompt);
+        OffsetDateTime expiresAt = OffsetDateTime.now().plus(generationConfig.getCaptionCache().getTtl());
+        store(cacheKey, caption, expiresAt);
+        putInMemory(tenantId + ":" + cacheKey, new CachedCaption(caption, expiresAt));
+    }
+
+    public double getHitRatio() {
+        double hits = memoryHits.count() + databaseHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private boolean isEnabled(String tenantId) {
+        if (!generationConfig.getCaptionCache().isEnabled() || tenantId == null) {
+            return false;
+        }
+        return tenantRepository.findById(tenantId)
+                .map(tenant -> !Boolean.FALSE.equals(tenant.getCaptionCacheEnabled()))
+                .orElse(false);
+    }
+
+    private String cacheKey(ContentFile contentFile, String prompt) {
+        return HashUtils.sha256Hex(imageHash(contentFile) + ":" + HashUtils.sha256Hex(prompt) + ":" + modelId());
+    }
+
+    /**
+     * Files uploaded before hashes were stored are downloaded and hashed once
+     */
+    private String imageHash(ContentFile contentFile) {
+        if (contentFile.getContentHash() == null) {
+            String contentHash = HashUtils.sha256Hex(s3Service.downloadFile(contentFile.getS3Key()));
+            contentFileRepository.saveContentHash(contentFile.getId(), contentHash);
+            contentFile.setContentHash(contentHash);
+        }
+        return contentFile.getContentHash();
+    }
+
+    private String modelId() {
+        ChatOptions options = chatModel.getDefaultOptions();
+        return options != null && options.getModel() != null ? options.getModel() : "default";
+    }
+
+    private void store(String cacheKey, String caption, OffsetDateTime expiresAt) {
+        CaptionCacheEntry entry = captionCacheRepository.findByCacheKey(cacheKey).orElseGet(CaptionCacheEntry::new);
+        entry.setCacheKey(cacheKey);
+        entry.setCaption(caption);
+        entry.setExpiresAt(expiresAt);
+
+        try {
+            captionCacheRepository.save(entry);
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Caption for cache key {} was stored concurrently", cacheKey);
+        }
+    }
+
+    private synchronized CachedCaption getFromMemory(String memoryKey) {
+        return memoryCache.get(memoryKey);
+    }
+
+    private synchronized void putInMemory(String memoryKey, CachedCaption cachedCaption) {
+        memoryCache.put(memoryKey, cachedCaption);
+    }
+
+    private Counter lookupCounter(String result) {
+        return Counter.builder("caption.cache.lookups")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record CachedCaption(String caption, OffsetDateTime expiresAt) {
+    }
+}
@@ -0,0 +1,181 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.model.TenantProfile;
+import com.somesimplify.somesimplify.repository.TenantProfileRepository;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the system prompt for caption generation from the tenant's profile.
+ * <p>
+ * The prompt is rendered once per tenant and kept until the profile changes, which is detected
+ * from the profile's updatedAt so every instance picks up changes. Today's date is not part of
+ * the system prompt but sent with each request, so the prompt stays identical between calls and
+ * the provider can cache it.
+ */
+@Service
+@RequiredArgsConstructor
+public class CaptionPromptService {
+
+    private static final String SYSTEM_TEMPLATE = """
+        Du er en erfaren, selvsikker og kreativ Social Media Manager for '{business_name}'.
+        Konsept: {concept}.
+        Målgruppe: {target_audience}.
+        
+        DIN OPPGAVE:
+        Analyser bildet og skriv en caption til Instagram.
+        Målet er å fange oppmerksomhet, bygge "pain awareness" eller FOMO, og drive signups/demo-bookinger.
+        
+        ---
+        
+        ### VIKTIGE REGLER FOR TONE OF VOICE (STRENGT)
+        1.  **Vær muntlig:** Skriv som et menneske, ikke en produktbrosjyre.
+        2.  **Forbudte ord:** ALDRI bruk ordene "løsning", "effektivisere", "sømløst", "kraftig", "brukervennlig" eller "neste nivå". Dette er "AI-språk".
+        3.  **Show, don't tell:** Ikke si at produktet er bra. Beskriv heller resultatet – sparte timer, færre feil, konkret output.
+        4.  **Lengde:** Hold det kort og punchy. Ingen lange avhandlinger.
+        
+        ---
+        
+        ### EKSEMPLER PÅ GOD VS. DÅRLIG TEKST (LÆR AV DISSE)
+        
+        EKSEMPEL 1 (Feature/Dashboard):
+        ❌ Dårlig: "Vår kraftige dashboard-løsning effektiviserer arbeidsflyten din. Prøv i dag!"
+        ✅ Bra: "Fra 47 åpne faner til én. 🎯 Regnskapet ditt fortjener bedre enn copy-paste mellom Excel-ark."
+        
+        EKSEMPEL 2 (Team/Kultur):
+        ❌ Dårlig: "Vi har et fantastisk team som jobber hardt for å levere en brukervennlig løsning."
+        ✅ Bra: "Shipping på en fredag? Jada, vi liker å leve farlig. 🚀 Nytt i appen: [feature]"
+        
+        EKSEMPEL 3 (Lansering/Oppdatering):
+        ❌ Dårlig: "Vi er stolte av å lansere vår nye integrasjon som tar produktet til neste nivå."
+        ✅ Bra: "ENDELIG! 🔥 Fordi dere maste. Slack-integrasjon er LIVE. Aldri mer 'glemte du fakturaen?'-meldinger."
+        
+        ---
+        
+        ### STEG-FOR-STEG INSTRUKSJONER
+        
+        STEG 1: KATEGORISER BILDET
+        - Er det **SCREENSHOT/FEATURE**? -> Fokus: Konkret problem som løses, før/etter.
+        - Er det **TEAM/KONTOR**? -> Fokus: Personlighet, bak kulissene, humor.
+        - Er det **GRAFIKK/ANNOUNCEMENT**? -> Fokus: Hype + tydelig nytte (Bruk CAPS LOCK i overskrift).
+        
+        STEG 2: SKRIV TEKSTEN
+        Tilpass språket til {concept} og målgruppen.
+        - Startup/Dev tools = Uformelt, memes, teknisk humor.
+        - Enterprise/B2B = Profesjonelt men menneskelig, fokus på ROI.
+        - SMB = Folkelig, relaterbart, "vi skjønner smerten".
+        
+        STEG 3: ENGASJEMENT & AVSLUTNING
+        Avslutt alltid med et relevant spørsmål eller en oppfordring før linken.
+        - Hvis screenshot: "Hvem andre har druknet i regneark?"
+        - Hvis team: "Hva shipper DU denne uken?"
+        - Hvis lansering: "Early access? Link i bio 👀"
+        
+        ---
+        
+        ### OUTPUT FORMAT
+        [Emoji] [Hook/Overskrift]
+        [Kort brødtekst]
+        [Spørsmål/Engagement]
+        
+        👇
+        Les mer: {website_url}
+        
+        [Start Generering Nå]
+
+        """;
+
+    private static final Locale NORWEGIAN = Locale.forLanguageTag("nb-NO");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("d. MMMM yyyy (EEEE)", NORWEGIAN);
+    private static final ZoneId ZONE = ZoneId.of("Europe/Oslo");
+
+    private final TenantRepository tenantRepository;
+    private final TenantProfileRepository profileRepository;
+
+    private final Map<String, RenderedPrompt> promptsByTenant = new ConcurrentHashMap<>();
+
+    public String getSystemPrompt(String tenantId) {
+        TenantProfile profile = profileRepository.findByTenantId(tenantId).orElse(null);
+        LocalDateTime profileUpdatedAt = profile != null ? profile.getUpdatedAt() : null;
+
+        RenderedPrompt rendered = promptsByTenant.get(tenantId);
+        if (rendered == null || !Objects.equals(rendered.profileUpdatedAt(), profileUpdatedAt)) {
+            rendered = new RenderedPrompt(profileUpdatedAt, render(tenantId, profile));
+            promptsByTenant.put(tenantId, rendered);
+        }
+        return rendered.prompt();
+    }
+
+    /**
+     * Forget the rendered prompt of a tenant, e.g. after its profile was changed
+     */
+    public void evict(String tenantId) {
+        promptsByTenant.remove(tenantId);
+    }
+
+    public String getDateLine() {
+        return "Dagens dato: " + LocalDate.now(ZONE).format(DATE_FORMAT) + ".";
+    }
+
+    /**
+     * The profile values the prompt templates use: business_name, concept, target_audience and
+     * website_url
+     */
+    public Map<String, Object> getProfileVariables(String tenantId) {
+        return profileVariables(tenantId, profileRepository.findByTenantId(tenantId).orElse(null));
+    }
+
+    private String render(String tenantId, TenantProfile profile) {
+        return new SystemPromptTemplate(SYSTEM_TEMPLATE).render(profileVariables(tenantId, profile));
+    }
+
+    private Map<String, Object> profileVariables(String tenantId, TenantProfile profile) {
+        String businessName = tenantRepository.findById(tenantId).map(Tenant::getName).orElse("bedriften");
+
+        return Map.of(
+                "business_name", businessName,
+                "concept", profile != null ? concept(profile) : "ikke oppgitt",
+                "target_audience", profile != null ? targetAudience(profile) : "ikke oppgitt",
+                "website_url", profile != null ? profile.getWebsiteUrl() : "link i bio"
+        );
+    }
+
+    private String concept(TenantProfile profile) {
+        if ("Annet".equals(profile.getConcept()) && hasText(profile.getConceptOther())) {
+            return profile.getConceptOther();
+        }
+        return profile.getConcept();
+    }
+
+    private String targetAudience(TenantProfile profile) {
+        List<String> audience = new ArrayList<>();
+        if (profile.getTargetAudience() != null) {
+            audience.addAll(profile.getTargetAudience());
+        }
+        if (hasText(profile.getTargetAudienceOther())) {
+            audience.add(profile.getTargetAudienceOther());
+        }
+        return audience.isEmpty() ? "ikke oppgitt" : String.join(", ", audience);
+    }
+
+    private boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    private record RenderedPrompt(LocalDateTime profileUpdatedAt, String prompt) {
+    }
+}
@@ -0,0 +1,138 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.model.PostStatus;
+import com.somesimplify.somesimplify.config.GenerationConfig;
+import com.somesimplify.somesimplify.exception.BadRequestException;
+import com.somesimplify.somesimplify.exception.ConflictException;
+import com.somesimplify.somesimplify.model.ContentFile;
+import com.somesimplify.somesimplify.model.Post;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Regenerates the caption of a post and streams it to the browser as Server-Sent Events: a
+ * "token" event per chunk from the model, then "done" with the saved caption, or "error". The
+ * stream is consumed on a virtual thread, so the request thread is released right away. When the
+ * emitter times out or the browser goes away, the model stream is cancelled and the caption is
+ * not saved.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CaptionStreamService {
+
+    private final PostService postService;
+    private final GenerationConfig generationConfig;
+
+    private final ExecutorService streamExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("caption-stream-", 0).factory());
+
+    public SseEmitter regenerateCaption(String postId) {
+        Post post = postService.getPostById(postId);
+        if (post.getStatus() == PostStatus.PUBLISHING || post.getStatus() == PostStatus.PUBLISHED) {
+            throw new ConflictException("The caption of a published post can not be changed");
+        }
+
+        List<ContentFile> contentFiles = List.copyOf(post.getContentFiles());
+        if (contentFiles.isEmpty()) {
+            throw new BadRequestException("Post has no images to write a caption for");
+        }
+
+        String tenantId = TenantContext.getTenantId();
+        SseEmitter emitter = new SseEmitter(generationConfig.getCaptionTimeout().toMillis());
+        ClientConnection connection = new ClientConnection(emitter);
+        streamExecutor.execute(() -> streamCaption(tenantId, postId, contentFiles, emitter, connection));
+        return emitter;
+    }
+
+    private void streamCaption(String tenantId, String postId, List<ContentFile> contentFiles, SseEmitter emitter,
+                               ClientConnection connection) {
+        try {
+            TenantContext.setTenantId(tenantId);
+
+            StringBuilder caption = new StringBuilder();
+            Flux<String> tokens = postService.streamTextForPost(contentFiles)
+                    .takeUntilOther(connection.whenClosed());
+            try (Stream<String> stream = tokens.toStream()) {
+                for (String token : (Iterable<String>) stream::iterator) {
+                    caption.append(token);
+                    emitter.send(SseEmitter.event().name("token").data(token));
+                }
+            }
+
+            if (connection.isClosed()) {
+                log.info("Client left before the caption for post {} was done, not saving it", postId);
+                return;
+            }
+
+            Post post = postService.updatePost(postId, caption.toString().trim(), null, null);
+            emitter.send(SseEmitter.event().name("done").data(post.getText()));
+            emitter.complete();
+
+        } catch (Exception e) {
+            // Sending on an emitter that timed out or completed throws IllegalStateException
+            if (e instanceof IOException || connection.isClosed()) {
+                log.info("Client left before the caption for post {} was done, not saving it", postId);
+                return;
+            }
+
+            log.warn("Could not regenerate caption for post {}: {}", postId, e.getMessage());
+            try {
+                emitter.send(SseEmitter.event().name("error").data("Kunne ikke lage ny tekst"));
+                emitter.complete();
+            } catch (IOException | IllegalStateException ignored) {
+                // The client is gone, nothing left to tell it
+            }
+        } finally {
+            TenantContext.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    /**
+     * Whether the browser is still listening. The emitter calls back when it times out, when the
+     * connection fails and when it completes.
+     */
+    private static class ClientConnection {
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Sinks.One<Boolean> closedSignal = Sinks.one();
+
+        private ClientConnection(SseEmitter emitter) {
+            emitter.onTimeout(this::close);
+            emitter.onError(e -> close());
+            emitter.onCompletion(this::close);
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                closedSignal.tryEmitValue(true);
+            }
+        }
+
+        private boolean isClosed() {
+            return closed.get();
+        }
+
+        private Mono<Boolean> whenClosed() {
+            return closedSignal.asMono();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.model.GenerationJobStatus;
+import com.somesimplify.somesimplify.config.GenerationConfig;
+import com.somesimplify.somesimplify.exception.ResourceNotFoundException;
+import com.somesimplify.somesimplify.model.GenerationJob;
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import com.somesimplify.somesimplify.repository.GenerationJobRepository;
+import com.somesimplify.somesimplify.repository.GenerationJobRepository.QueuedJob;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import com.somesimplify.somesimplify.service.PostGenerationService.GenerationProgress;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs post generation for a single tenant in the background. The job row is the source of
+ * truth for its state, so any node can report on it, and a job whose node went away is picked
+ * up again by {@link #recoverJobs()}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GenerationJobService {
+
+    private static final List<GenerationJobStatus> ACTIVE_STATUSES =
+            List.of(GenerationJobStatus.QUEUED, GenerationJobStatus.RUNNING);
+
+    private final GenerationJobRepository generationJobRepository;
+    private final TenantRepository tenantRepository;
+    private final PostGenerationService postGenerationService;
+    private final GenerationConfig generationConfig;
+
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName()
+            + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    // Jobs running on this node, which get their heartbeat from the recovery job
+    private final Set<String> runningJobIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Start generating posts for the current tenant. If the tenant already has a job that is
+     * queued or running, that job is returned instead of starting another. The job is read again
+     * after it was handed to this node, so the returned status is RUNNING unless it already
+     * finished or another node claimed it first.
+     */
+    public GenerationJob startJob() {
+        GenerationJob job = generationJobRepository.queueJobIfNoneActive(TenantContext.getTenantId(), ACTIVE_STATUSES);
+
+        // Claiming is conditional, so this does nothing for a job that is already running
+        run(job.getId(), job.getTenantId());
+        return generationJobRepository.findById(job.getId()).orElse(job);
+    }
+
+    public GenerationJob getJob(String id) {
+        return generationJobRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Generation job not found"));
+    }
+
+    /**
+     * Cancel a queued or running job. Captions that are already being generated are finished
+     * and saved, but no new ones are started.
+     */
+    public GenerationJob cancelJob(String id) {
+        GenerationJob job = getJob(id);
+        OffsetDateTime now = OffsetDateTime.now();
+        if (generationJobRepository.cancel(id, now) == 1) {
+            job.setStatus(GenerationJobStatus.CANCELLED);
+            job.setFinishedAt(now);
+            log.info("Cancelled generation job {}", id);
+        }
+        return job;
+    }
+
+    /**
+     * Send heartbeats for the jobs running on this node, queue jobs of nodes that stopped sending
+     * them, and start jobs that have been queued for too long.
+     */
+    public void recoverJobs() {
+        OffsetDateTime now = OffsetDateTime.now();
+        if (!runningJobIds.isEmpty()) {
+            generationJobRepository.heartbeat(runningJobIds, nodeId, now);
+        }
+
+        int requeued = generationJobRepository.requeueStale(now.minus(generationConfig.getJobs().getStaleAfter()));
+        if (requeued > 0) {
+            log.warn("Queued {} generation jobs again after their node stopped sending heartbeats", requeued);
+        }
+
+        List<QueuedJob> queuedJobs = generationJobRepository.findQueuedBefore(
+                now.minus(generationConfig.getJobs().getQueuedAfter()));
+        queuedJobs.forEach(queuedJob -> run(queuedJob.getJobId(), queuedJob.getTenantId()));
+    }
+
+    private void run(String jobId, String tenantId) {
+        if (generationJobRepository.claim(jobId, nodeId, OffsetDateTime.now()) == 0) {
+            return;
+        }
+        runningJobIds.add(jobId);
+        log.info("Node {} started generation job {} for tenant {}", nodeId, jobId, tenantId);
+
+        CompletableFuture<Void> generation;
+        try {
+            Tenant tenant = tenantRepository.findById(tenantId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Tenant " + tenantId + " not found"));
+            generation = postGenerationService.generatePostsForTenant(tenant, new JobProgress(jobId));
+        } catch (Exception e) {
+            generation = CompletableFuture.failedFuture(e);
+        }
+
+        generation.whenComplete((result, e) -> {
+            runningJobIds.remove(jobId);
+            if (e == null) {
+                generationJobRepository.finish(jobId, GenerationJobStatus.COMPLETED.name(), null, OffsetDateTime.now());
+                log.info("Finished generation job {}", jobId);
+            } else {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                generationJobRepository.finish(jobId, GenerationJobStatus.FAILED.name(), cause.getMessage(),
+                        OffsetDateTime.now());
+                log.error("Generation job {} failed: {}", jobId, cause.getMessage(), cause);
+            }
+        });
+    }
+
+    /**
+     * Writes the progress of a job to its row as the generation executor reports it
+     */
+    private class JobProgress implements GenerationProgress {
+        private final String jobId;
+
+        private JobProgress(String jobId) {
+            this.jobId = jobId;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return generationJobRepository.isCancelled(jobId);
+        }
+
+        @Override
+        public void onStarted(int totalFiles) {
+            generationJobRepository.saveRemainingFiles(jobId, totalFiles);
+        }
+
+        @Override
+        public void onSaved(int posts) {
+            generationJobRepository.addGeneratedPosts(jobId, posts);
+        }
+
+        @Override
+        public void onFailed(int files, String errorMessage) {
+            generationJobRepository.addFailedFiles(jobId, files, errorMessage);
+        }
+    }
+}
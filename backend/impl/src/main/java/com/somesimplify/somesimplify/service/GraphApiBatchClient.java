@@ -0,0 +1,93 @@
+package com.somesimplify.somesimplify.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.somesimplify.somesimplify.dto.instagram.GraphBatchRequest;
+import com.somesimplify.somesimplify.dto.instagram.GraphBatchResponse;
+import com.somesimplify.somesimplify.exception.InstagramPublishException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends several Graph API operations in one HTTPS request using the batch API. Meta still counts
+ * every operation against the rate limit, so each one takes a token from the account's bucket.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GraphApiBatchClient {
+
+    /**
+     * The Graph API accepts at most 50 operations per batch
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final GraphApiRateLimiter rateLimiter;
+
+    @Value("${instagram.graph-api-url:https://graph.facebook.com/v18.0}")
+    private String graphApiUrl;
+
+    /**
+     * Execute the operations, split into batches of {@link #MAX_BATCH_SIZE}. The responses are in
+     * the same order as the requests. An entry is null if Meta did not get to the operation
+     * before the batch timed out.
+     */
+    public List<GraphBatchResponse> execute(String accountId, String accessToken, List<GraphBatchRequest> requests) {
+        List<GraphBatchResponse> responses = new ArrayList<>(requests.size());
+
+        for (int from = 0; from < requests.size(); from += MAX_BATCH_SIZE) {
+            List<GraphBatchRequest> batch = requests.subList(from, Math.min(from + MAX_BATCH_SIZE, requests.size()));
+            responses.addAll(executeBatch(accountId, accessToken, batch));
+        }
+
+        return responses;
+    }
+
+    private List<GraphBatchResponse> executeBatch(String accountId, String accessToken, List<GraphBatchRequest> batch) {
+        rateLimiter.acquireCalls(accountId, batch.size());
+
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add("batch", toJson(batch));
+        params.add("include_headers", "false");
+        params.add("access_token", accessToken);
+
+        try {
+            ResponseEntity<String> response = restTemplate.postForEntity(graphApiUrl, params, String.class);
+            rateLimiter.recordUsage(accountId, response.getHeaders());
+
+            List<GraphBatchResponse> responses = objectMapper.readValue(response.getBody(), new TypeReference<>() {
+            });
+            if (responses.size() != batch.size()) {
+                throw new InstagramPublishException("Graph API batch returned " + responses.size()
+                        + " responses for " + batch.size() + " requests");
+            }
+            return responses;
+        } catch (HttpStatusCodeException e) {
+            rateLimiter.recordUsage(accountId, e.getResponseHeaders());
+            throw e;
+        } catch (JsonProcessingException e) {
+            throw new InstagramPublishException("Could not read Graph API batch response", e);
+        }
+    }
+
+    private String toJson(List<GraphBatchRequest> batch) {
+        try {
+            return objectMapper.writeValueAsString(batch);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not write Graph API batch request", e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.somesimplify.somesimplify.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.somesimplify.somesimplify.exception.InstagramRateLimitedException;
+import com.somesimplify.somesimplify.resilience.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps Graph API calls within Instagram's limits, per Instagram account.
+ * <p>
+ * Every account has a token bucket for API calls and one for published posts. The refill rate of
+ * the call bucket follows the usage Meta reports in the X-App-Usage and X-Business-Use-Case-Usage
+ * response headers: it is slowed down as usage gets close to 100%, and calls stop entirely while
+ * Meta reports a time to regain access. A caller waits for a token for at most
+ * {@code instagram.rate-limit.max-wait}, after that {@link InstagramRateLimitedException} tells it
+ * when to try again.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GraphApiRateLimiter {
+
+    private static final double SLOWDOWN_FROM_USAGE_PERCENT = 50;
+    private static final double MIN_REFILL_FACTOR = 0.1;
+
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+
+    @Value("${instagram.rate-limit.calls-per-hour:200}")
+    private int callsPerHour;
+
+    @Value("${instagram.rate-limit.publishes-per-day:50}")
+    private int publishesPerDay;
+
+    @Value("${instagram.rate-limit.max-wait:30s}")
+    private Duration maxWait;
+
+    private final Map<String, AccountLimits> limitsByAccount = new ConcurrentHashMap<>();
+
+    public void acquireCall(String accountId) {
+        acquireCalls(accountId, 1);
+    }
+
+    /**
+     * Take a token per call, for batch and multi-ID requests that Meta counts as several calls
+     */
+    public void acquireCalls(String accountId, int calls) {
+        AccountLimits limits = limitsFor(accountId);
+        acquire(accountId, limits, limits.calls, Math.min(calls, callsPerHour), "call");
+    }
+
+    public void acquirePublish(String accountId) {
+        AccountLimits limits = limitsFor(accountId);
+        acquire(accountId, limits, limits.publishes, 1, "publish");
+    }
+
+    /**
+     * Adapt the account's call rate to the usage reported in a Graph API response.
+     */
+    public void recordUsage(String accountId, HttpHeaders headers) {
+        if (headers == null) {
+            return;
+        }
+
+        Usage usage = Usage.NONE;
+        usage = usage.max(parseUsage(headers.getFirst("X-App-Usage")));
+        usage = usage.max(parseUsage(headers.getFirst("X-Business-Use-Case-Usage")));
+
+        AccountLimits limits = limitsFor(accountId);
+        limits.usagePercent = usage.percent();
+
+        double factor = 1.0;
+        if (usage.percent() > SLOWDOWN_FROM_USAGE_PERCENT) {
+            factor = Math.max(MIN_REFILL_FACTOR,
+                    (100 - usage.percent()) / (100 - SLOWDOWN_FROM_USAGE_PERCENT));
+        }
+        limits.calls.setRefillPerSecond(callsPerHour / 3600.0 * factor);
+
+        if (usage.minutesToRegainAccess() > 0) {
+            limits.blockedUntilNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(usage.minutesToRegainAccess());
+            log.warn("Instagram account {} is throttled for {} minutes", accountId, usage.minutesToRegainAccess());
+        }
+    }
+
+    private void acquire(String accountId, AccountLimits limits, TokenBucket bucket, int permits,
+                         String kind) {
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        boolean waited = false;
+
+        while (true) {
+            long now = System.nanoTime();
+            long waitNanos = Math.max(limits.blockedUntilNanos - now, 0);
+            if (waitNanos == 0) {
+                waitNanos = bucket.tryAcquire(permits);
+                if (waitNanos == 0) {
+                    return;
+                }
+            }
+
+            if (now + waitNanos > deadline) {
+                limits.rejections.increment();
+                throw new InstagramRateLimitedException(
+                        "Instagram " + kind + " quota for account " + accountId + " is used up",
+                        Duration.ofNanos(waitNanos));
+            }
+
+            if (!waited) {
+                waited = true;
+                limits.waits.increment();
+            }
+
+            try {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InstagramRateLimitedException("Interrupted while waiting for Instagram quota",
+                        Duration.ofNanos(waitNanos));
+            }
+        }
+    }
+
+    private AccountLimits limitsFor(String accountId) {
+        return limitsByAccount.computeIfAbsent(accountId, this::createLimits);
+    }
+
+    private AccountLimits createLimits(String accountId) {
+        AccountLimits limits = new AccountLimits(
+                new TokenBucket(callsPerHour, callsPerHour / 3600.0),
+                new TokenBucket(publishesPerDay, publishesPerDay / 86400.0),
+                Counter.builder("graph.api.rate_limiter.waits").tag("account", accountId).register(meterRegistry),
+                Counter.builder("graph.api.rate_limiter.rejections").tag("account", accountId).register(meterRegistry)
+        );
+
+        Gauge.builder("graph.api.rate_limiter.call_tokens", limits.calls, TokenBucket::getAvailableTokens)
+                .tag("account", accountId)
+                .register(meterRegistry);
+        Gauge.builder("graph.api.rate_limiter.publish_tokens", limits.publishes, TokenBucket::getAvailableTokens)
+                .tag("account", accountId)
+                .register(meterRegistry);
+        Gauge.builder("graph.api.rate_limiter.usage_percent", limits, l -> l.usagePercent)
+                .tag("account", accountId)
+                .register(meterRegistry);
+
+        return limits;
+    }
+
+    /**
+     * Both headers hold JSON with call_count, total_cputime and total_time as a percentage of the
+     * quota. The business use case header nests them per business and may also report
+     * estimated_time_to_regain_access in minutes.
+     */
+    private Usage parseUsage(String header) {
+        if (header == null || header.isBlank()) {
+            return Usage.NONE;
+        }
+
+        try {
+            return usageOf(objectMapper.readTree(header));
+        } catch (Exception e) {
+            log.debug("Could not parse Graph API usage header {}: {}", header, e.getMessage());
+            return Usage.NONE;
+        }
+    }
+
+    private Usage usageOf(JsonNode node) {
+        Usage usage = Usage.NONE;
+        if (node.isObject() && node.has("call_count")) {
+            double percent = Math.max(node.path("call_count").asDouble(),
+                    Math.max(node.path("total_cputime").asDouble(), node.path("total_time").asDouble()));
+            usage = new Usage(percent, node.path("estimated_time_to_regain_access").asLong());
+        }
+
+        for (JsonNode child : node) {
+            if (child.isContainerNode()) {
+                usage = usage.max(usageOf(child));
+            }
+        }
+        return usage;
+    }
+
+    private static class AccountLimits {
+        private final TokenBucket calls;
+        private final TokenBucket publishes;
+        private final Counter waits;
+        private final Counter rejections;
+        private volatile long blockedUntilNanos = System.nanoTime();
+        private volatile double usagePercent;
+
+        private AccountLimits(TokenBucket calls, TokenBucket publishes, Counter waits, Counter rejections) {
+            this.calls = calls;
+            this.publishes = publishes;
+            this.waits = waits;
+            this.rejections = rejections;
+        }
+    }
+
+    private record Usage(double percent, long minutesToRegainAccess) {
+        private static final Usage NONE = new Usage(0, 0);
+
+        private Usage max(Usage other) {
+            return new Usage(Math.max(percent, other.percent),
+                    Math.max(minutesToRegainAccess, other.minutesToRegainAccess));
+        }
+    }
+}
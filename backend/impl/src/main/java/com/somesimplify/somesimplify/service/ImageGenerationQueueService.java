@@ -0,0 +1,96 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.ImageGenerationConfig;
+import com.somesimplify.somesimplify.model.ImageGenerationJob;
+import com.somesimplify.somesimplify.repository.ImageGenerationJobRepository;
+import com.somesimplify.somesimplify.repository.ImageGenerationJobRepository.QueuedImageJob;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.UUID;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImageGenerationQueueService {
+
+    private final ImageGenerationJobRepository imageGenerationJobRepository;
+    private final ImageGenerationConfig imageGenerationConfig;
+
+    @Getter
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName()
+            + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * Queue today's job for every tenant with image generation turned on. Returns the number of
+     * jobs queued.
+     */
+    @Transactional
+    public int enqueueDailyJobs() {
+        int queued = imageGenerationJobRepository.enqueueForEnabledTenants(
+                LocalDate.now(ZoneId.of("Europe/Oslo")), OffsetDateTime.now());
+        if (queued > 0) {
+            log.info("Queued {} image generation jobs", queued);
+        }
+        return queued;
+    }
+
+    /**
+     * Claim up to {@code limit} queued jobs across all tenants for this node
+     */
+    @Transactional
+    public List<QueuedImageJob> claimQueuedJobs(int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+
+        OffsetDateTime now = OffsetDateTime.now();
+        List<QueuedImageJob> jobs = imageGenerationJobRepository.lockQueuedJobs(
+                now, imageGenerationConfig.getMaxAttempts(), limit);
+
+        if (!jobs.isEmpty()) {
+            imageGenerationJobRepository.lease(
+                    jobs.stream().map(QueuedImageJob::getJobId).toList(),
+                    nodeId,
+                    now.plus(imageGenerationConfig.getLeaseDuration()),
+                    now
+            );
+            log.debug("Node {} claimed {} image generation jobs", nodeId, jobs.size());
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Set jobs that ran out of attempts while their node was gone to FAILED. Returns the number
+     * of jobs failed.
+     */
+    @Transactional
+    public int failAbandonedJobs() {
+        int failed = imageGenerationJobRepository.failAbandonedJobs(OffsetDateTime.now(),
+                imageGenerationConfig.getMaxAttempts(), "Lease expired on the last attempt");
+        if (failed > 0) {
+            log.warn("Failed {} image generation jobs that ran out of attempts", failed);
+        }
+        return failed;
+    }
+
+    @Transactional
+    public void finish(String jobId, ImageGenerationJob.Status status, Duration duration,
+                       int generatedImages, String errorMessage) {
+        if (imageGenerationJobRepository.finish(jobId, nodeId, status.name(), duration.toMillis(),
+                generatedImages, errorMessage, OffsetDateTime.now()) == 0) {
+            log.warn("Node {} lost the lease on image generation job {} before setting it to {}",
+                    nodeId, jobId, status);
+        }
+    }
+}
@@ -5,86 +5,148 @@ import com.google.genai.types.Blob;
 import com.google.genai.types.GenerateContentConfig;
 import com.google.genai.types.GenerateContentResponse;
 import com.google.genai.types.Part;
+import com.somesimplify.somesimplify.config.ImageGenerationConfig;
+import com.somesimplify.somesimplify.model.ContentFile;
+import com.somesimplify.somesimplify.model.ImageGenerationJob;
+import com.somesimplify.somesimplify.multitenancy.executor.TenantFairExecutor;
+import com.somesimplify.somesimplify.repository.ImageGenerationJobRepository.QueuedImageJob;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.stereotype.Service;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ImageGenerationService {
 
-    @Value("${spring.ai.google.genai.api-key}")
-    private String apiKey;
+    private static final String PROMPT_TEMPLATE = """
+            Du er en AI prosjektleder som gir instrukser til AI markedsførings botter. Du skal nå skrive en prompt som får
+            en AI markedsføringsbot til å lage et bilde for '{business_name}'.
+            Konsept: {concept}.
+            Målgruppe: {target_audience}.
+            
+            Det er viktig at du aldri ber markedsførings bottene om å lage noen ekte bilder, men heller grafisk innhold/infografikk.
+            
+            Bildet som blir laget skal være i 1:1 format.
+            
+            Det er viktig at du ikke gir noen forklaringer eller noe, da det det du skriver vil gå rett til ai botten.
+            
+            Outputten din skal altså være noe sånt som:
+            Lag en illustrasjon av...
+            
+            eller
+            
+            Lag et profesjonelt markedsføringsbilde for...
+            """;
 
     private final ChatModel chatModel;
-    @Scheduled(cron = "0 0 0 * * *")
-    //@Scheduled(fixedRate = 1000 * 60 * 60* 24)
-    private void generatePrompt() {
-        log.info("Generating prompt for image generation...");
-        String system = """
-                Du er en AI prosjektleder som gir instrukser til AI markedsførings botter. Du skal nå skrive en prompt som får
-                en AI markedsføringsbot til å lage et bilde for SaaS appen "Bilago". Bilago er et regnskapssystem
-                spesielt rettet mot enkeltpersonsforetak med under 5.000.000 i omsetning.
-                
-                Det er viktig at du aldri ber markedsførings bottene om å lage noen ekte bilder, men heller grafisk innhold/infografikk.
-                
-                Bildet som blir laget skal være i 1:1 format.
-                
-                Det er viktig at du ikke gir noen forklaringer eller noe, da det det du skriver vil gå rett til ai botten.
-                
-                Outputten din skal altså være noe sånt som:
-                Lag en illustrasjon av...
-                
-                eller
-                
-                Lag et profesjonelt markedsføringsbilde for...
-                """;
-        String prompt = chatModel.call(system);
-        generateImage(prompt);
+    // The client the Spring AI autoconfiguration creates for the chat model, so its connections are reused
+    private final Client genAiClient;
+    private final ImageService imageService;
+    private final CaptionPromptService captionPromptService;
+    private final ImageGenerationQueueService imageGenerationQueueService;
+    private final TenantFairExecutor imageGenerationExecutor;
+    private final ImageGenerationConfig imageGenerationConfig;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Claim queued image generation jobs for this node and hand them to the image generation
+     * executor. Only as many jobs are claimed as the executor has room to queue, so the rest stay
+     * available to other nodes. Returns the number of jobs claimed.
+     */
+    public int dispatchQueuedJobs() {
+        int limit = Math.min(imageGenerationConfig.getClaimBatchSize(), imageGenerationExecutor.getRemainingCapacity());
+        List<QueuedImageJob> jobs = imageGenerationQueueService.claimQueuedJobs(limit);
+
+        for (QueuedImageJob job : jobs) {
+            imageGenerationExecutor.submit(job.getTenantId(), "image-" + job.getJobId(), () -> runJob(job))
+                    .exceptionally(e -> {
+                        // Rejected by the executor; the lease runs out and the job is claimed again
+                        log.warn("Could not run image generation job {}: {}", job.getJobId(), e.getMessage());
+                        return null;
+                    });
+        }
+        return jobs.size();
+    }
+
+    private void runJob(QueuedImageJob job) {
+        long startedAt = System.nanoTime();
+        ImageGenerationJob.Status status = ImageGenerationJob.Status.COMPLETED;
+        int generatedImages = 0;
+        String errorMessage = null;
+
+        try {
+            generatedImages = generateImagesForTenant(job.getTenantId()).size();
+        } catch (Exception e) {
+            log.error("Image generation job {} for tenant {} failed: {}",
+                    job.getJobId(), job.getTenantId(), e.getMessage(), e);
+            status = ImageGenerationJob.Status.FAILED;
+            errorMessage = e.getMessage();
+        }
+
+        Duration duration = Duration.ofNanos(System.nanoTime() - startedAt);
+        meterRegistry.timer("image_generation.jobs", "outcome", status.name().toLowerCase()).record(duration);
+        imageGenerationQueueService.finish(job.getJobId(), status, duration, generatedImages, errorMessage);
+    }
+
+    /**
+     * Have the chat model write an image prompt from the tenant's profile and generate images for
+     * it. Runs in the tenant's context, which the image generation executor sets.
+     */
+    public List<ContentFile> generateImagesForTenant(String tenantId) {
+        log.info("Generating prompt for image generation for tenant {}", tenantId);
+        String prompt = chatModel.call(new PromptTemplate(PROMPT_TEMPLATE)
+                .render(captionPromptService.getProfileVariables(tenantId)));
+        return generateImage(prompt);
     }
 
+    /**
+     * Generate images for a prompt and store them as content files of the current tenant
+     */
     @SneakyThrows
-    public void generateImage(String prompt) {
+    public List<ContentFile> generateImage(String prompt) {
         log.info("Generating image for prompt {}", prompt);
-        try (Client client = Client.builder().apiKey(apiKey).build()) {
-            log.info("Generating image...");
-            GenerateContentConfig contentConfig = GenerateContentConfig.builder()
-                    .responseModalities("TEXT", "IMAGE")
-                    .build();
+        GenerateContentConfig contentConfig = GenerateContentConfig.builder()
+                .responseModalities("TEXT", "IMAGE")
+                .build();
 
-            GenerateContentResponse response = client.models.generateContent(
-                    "gemini-3-pro-image-preview",
-                    prompt,
-                    contentConfig
-            );
+        GenerateContentResponse response = genAiClient.models.generateContent(
+                imageGenerationConfig.getModel(),
+                prompt,
+                contentConfig
+        );
 
-            log.info("Received response!");
+        log.info("Received response!");
 
-            for (Part part : response.parts()) {
-                if (part.text().isPresent()) {
-                    log.info("Response text: " + part.text().get());
-                }
-                if (part.inlineData().isPresent()) {
-                    Blob blob = part.inlineData().get();
-                    if (blob.data().isPresent()) {
-                        Files.write(Paths.get("_01_generated_image.png"), blob.data().get());
-                        log.info("Image saved!");
-                    }else {
-                        log.error("No blob data!");
-                    }
-                }else {
-                    log.error("No inline data!");
+        List<ContentFile> contentFiles = new ArrayList<>();
+        for (Part part : response.parts()) {
+            if (part.text().isPresent()) {
+                log.info("Response text: " + part.text().get());
+            }
+            if (part.inlineData().isPresent()) {
+                Blob blob = part.inlineData().get();
+                if (blob.data().isPresent()) {
+                    String contentType = blob.mimeType().orElse("image/png");
+                    String fileName = "generated-" + LocalDate.now() + "-" + (contentFiles.size() + 1)
+                            + (contentType.equals("image/jpeg") ? ".jpg" : ".png");
+                    contentFiles.add(imageService.saveGeneratedImage(blob.data().get(), fileName, contentType));
+                    log.info("Image saved!");
+                } else {
+                    log.error("No blob data!");
                 }
+            } else if (part.text().isEmpty()) {
+                log.error("No inline data!");
             }
         }
+        return contentFiles;
     }
 }
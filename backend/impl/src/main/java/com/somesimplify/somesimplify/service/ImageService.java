@@ -6,14 +6,25 @@ import com.somesimplify.somesimplify.exception.ResourceNotFoundException;
 import com.somesimplify.somesimplify.mapper.ImageMapper;
 import com.somesimplify.somesimplify.model.ContentFile;
 import com.somesimplify.somesimplify.model.User;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
 import com.somesimplify.somesimplify.repository.ImageRepository;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import com.somesimplify.somesimplify.utils.HashUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Set;
 
@@ -26,6 +37,7 @@ public class ImageService {
     private final ImageMapper imageMapper;
     private final S3Service s3Service;
     private final UserService userService;
+    private final TenantRepository tenantRepository;
 
     private static final Set<String> ALLOWED_CONTENT_TYPES = Set.of(
             "image/jpeg",
@@ -37,7 +49,9 @@ public class ImageService {
     private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB
 
     /**
-     * Upload a new image
+     * Upload a new image. The upload is read once, into a temporary file while it is hashed. The
+     * original is streamed to S3 from that file, and the thumbnail and model image are made from
+     * a single scaled-down decode, so the full upload is never held in memory.
      */
     @Transactional
     public ImageTO uploadImage(MultipartFile file) throws IOException {
@@ -45,30 +59,74 @@ public class ImageService {
 
         User currentUser = userService.getCurrentUser();
 
-        // Upload original to S3
-        String s3Key = s3Service.uploadFile(file, currentUser.getId());
+        Path spooledFile = Files.createTempFile("upload-", ".tmp");
+        try {
+            MessageDigest digest = HashUtils.sha256();
+            try (InputStream inputStream = new DigestInputStream(file.getInputStream(), digest)) {
+                Files.copy(inputStream, spooledFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            // Upload original to S3
+            String s3Key = s3Service.uploadFile(spooledFile, file.getOriginalFilename(), file.getContentType(),
+                    currentUser.getId());
+
+            // Generate and upload the thumbnail and the rendition used for caption generation
+            BufferedImage scaledImage = s3Service.readScaledImage(spooledFile);
+            String thumbnailS3Key = s3Service.uploadThumbnail(scaledImage, file.getOriginalFilename(), currentUser.getId());
+            String modelImageS3Key = s3Service.uploadModelImage(s3Service.createModelImage(scaledImage), s3Key);
+
+            // Create database record
+            ContentFile contentFile = new ContentFile();
+            contentFile.setFileName(file.getOriginalFilename());
+            contentFile.setS3Key(s3Key);
+            contentFile.setThumbnailS3Key(thumbnailS3Key);
+            contentFile.setModelImageS3Key(modelImageS3Key);
+            contentFile.setContentType(file.getContentType());
+            contentFile.setFileSize(file.getSize());
+            contentFile.setContentHash(HexFormat.of().formatHex(digest.digest()));
+            contentFile.setUploadedBy(currentUser);
+
+            contentFile = imageRepository.save(contentFile);
+
+            // Convert to TO with pre-signed URLs
+            ImageTO imageTO = imageMapper.toImageTO(contentFile);
+            imageTO.setUrl(s3Service.generatePresignedUrl(s3Key));
+            imageTO.setThumbnailUrl(s3Service.generatePresignedUrl(thumbnailS3Key));
+
+            log.info("User {} uploaded image {}", currentUser.getId(), contentFile.getId());
+            return imageTO;
+        } finally {
+            Files.deleteIfExists(spooledFile);
+        }
+    }
+
+    /**
+     * Store an image made by the image model as a content file of the current tenant, so posts
+     * can be generated for it like for uploaded images. The files are stored in the tenant's folder,
+     * and the image is owned by the tenant's owner so it shows up in their image library.
+     */
+    @Transactional
+    public ContentFile saveGeneratedImage(byte[] image, String fileName, String contentType) throws IOException {
+        String tenantId = TenantContext.getTenantId();
 
-        // Generate and upload thumbnail
-        String thumbnailS3Key = s3Service.uploadThumbnail(file, currentUser.getId());
+        String s3Key = s3Service.uploadFile(image, fileName, contentType, tenantId);
+        BufferedImage scaledImage = s3Service.readScaledImage(image);
+        String thumbnailS3Key = s3Service.uploadThumbnail(scaledImage, fileName, tenantId);
+        String modelImageS3Key = s3Service.uploadModelImage(s3Service.createModelImage(scaledImage), s3Key);
 
-        // Create database record
         ContentFile contentFile = new ContentFile();
-        contentFile.setFileName(file.getOriginalFilename());
+        contentFile.setFileName(fileName);
         contentFile.setS3Key(s3Key);
         contentFile.setThumbnailS3Key(thumbnailS3Key);
-        contentFile.setContentType(file.getContentType());
-        contentFile.setFileSize(file.getSize());
-        contentFile.setUploadedBy(currentUser);
+        contentFile.setModelImageS3Key(modelImageS3Key);
+        contentFile.setContentType(contentType);
+        contentFile.setFileSize((long) image.length);
+        contentFile.setContentHash(HashUtils.sha256Hex(image));
+        contentFile.setUploadedBy(getTenantOwner(tenantId));
 
         contentFile = imageRepository.save(contentFile);
-
-        // Convert to TO with pre-signed URLs
-        ImageTO imageTO = imageMapper.toImageTO(contentFile);
-        imageTO.setUrl(s3Service.generatePresignedUrl(s3Key));
-        imageTO.setThumbnailUrl(s3Service.generatePresignedUrl(thumbnailS3Key));
-
-        log.info("User {} uploaded image {}", currentUser.getId(), contentFile.getId());
-        return imageTO;
+        log.info("Saved generated image {} for tenant {}", contentFile.getId(), tenantId);
+        return contentFile;
     }
 
     /**
@@ -111,9 +169,12 @@ public class ImageService {
         ContentFile contentFile = imageRepository.findByIdAndUploadedBy(id, currentUser)
                 .orElseThrow(() -> new ResourceNotFoundException("Image not found"));
 
-        // Delete from S3 (both original and thumbnail)
+        // Delete from S3 (original, thumbnail and model image)
         s3Service.deleteFile(contentFile.getS3Key());
         s3Service.deleteFile(contentFile.getThumbnailS3Key());
+        if (contentFile.getModelImageS3Key() != null) {
+            s3Service.deleteFile(contentFile.getModelImageS3Key());
+        }
 
         // Delete from database
         imageRepository.delete(contentFile);
@@ -121,6 +182,18 @@ public class ImageService {
         log.info("User {} deleted image {}", currentUser.getId(), id);
     }
 
+    /**
+     * The user who created the tenant. Tenants are created with their owner as the only user.
+     */
+    private User getTenantOwner(String tenantId) {
+        return tenantRepository.findById(tenantId)
+                .flatMap(tenant -> tenant.getUsers().stream().findFirst())
+                .orElseGet(() -> {
+                    log.warn("Tenant {} has no owner, the generated image will not be in any image library", tenantId);
+                    return null;
+                });
+    }
+
     /**
      * Validate file type and size
      */
@@ -1,9 +1,12 @@
 package com.somesimplify.somesimplify.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.somesimplify.model.PlatformType;
 import com.somesimplify.somesimplify.config.ApplicationConfig;
+import com.somesimplify.somesimplify.dto.instagram.GraphApiErrorResponse;
 import com.somesimplify.somesimplify.dto.instagram.InstagramAccountInfo;
 import com.somesimplify.somesimplify.dto.instagram.InstagramTokenResponse;
+import com.somesimplify.somesimplify.exception.InstagramRateLimitedException;
 import com.somesimplify.somesimplify.model.SocialMediaConnection;
 import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
 import com.somesimplify.somesimplify.repository.SocialMediaConnectionRepository;
@@ -13,10 +16,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.Base64;
 import java.util.Optional;
@@ -30,6 +35,7 @@ public class InstagramOAuthService {
     private final SocialMediaConnectionRepository connectionRepository;
     private final RestTemplate restTemplate;
     private final ApplicationConfig applicationConfig;
+    private final ObjectMapper objectMapper;
 
     @Value("${instagram.app-id}")
     private String instagramAppId;
@@ -39,6 +45,7 @@ public class InstagramOAuthService {
 
     private static final String OAUTH_URL = "https://api.instagram.com/oauth";
     private static final String GRAPH_API_URL = "https://graph.facebook.com/v18.0";
+    private static final Duration RATE_LIMIT_RETRY_AFTER = Duration.ofHours(1);
 
     public String getAuthorizationUrl(String tenantId) {
         String redirectUri = applicationConfig.getBackendUrl() + "/instagram/oauth/callback";
@@ -93,7 +100,7 @@ public class InstagramOAuthService {
                 shortLivedToken
         );
 
-        return restTemplate.getForObject(url, InstagramTokenResponse.class);
+        return graphGet(url, InstagramTokenResponse.class);
     }
 
     private InstagramAccountInfo getInstagramAccount(String accessToken) {
@@ -103,7 +110,39 @@ public class InstagramOAuthService {
                 accessToken
         );
 
-        return restTemplate.getForObject(url, InstagramAccountInfo.class);
+        return graphGet(url, InstagramAccountInfo.class);
+    }
+
+    /**
+     * Meta counts these calls against the token of the user who is connecting, not against a
+     * connected account, so they do not go through the shared rate limiter. A rate limit error
+     * from Meta is reported as {@link InstagramRateLimitedException}.
+     */
+    private <T> T graphGet(String url, Class<T> responseType) {
+        try {
+            return restTemplate.getForObject(url, responseType);
+        } catch (HttpStatusCodeException e) {
+            if (isRateLimited(e)) {
+                throw new InstagramRateLimitedException("Instagram rate limit reached while connecting the account",
+                        RATE_LIMIT_RETRY_AFTER);
+            }
+            throw e;
+        }
+    }
+
+    private boolean isRateLimited(HttpStatusCodeException e) {
+        if (e.getStatusCode().value() == 429) {
+            return true;
+        }
+
+        try {
+            GraphApiErrorResponse response = objectMapper.readValue(e.getResponseBodyAsString(),
+                    GraphApiErrorResponse.class);
+            return response != null && response.getError() != null
+                    && PublishRetryPolicy.isRateLimitedGraphCode(response.getError().getCode());
+        } catch (Exception parseException) {
+            return false;
+        }
     }
 
     private SocialMediaConnection saveConnection(String tenantId,
@@ -1,23 +1,39 @@
 package com.somesimplify.somesimplify.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.somesimplify.model.PlatformType;
+import com.somesimplify.somesimplify.dto.instagram.GraphApiErrorResponse;
+import com.somesimplify.somesimplify.dto.instagram.GraphBatchRequest;
+import com.somesimplify.somesimplify.dto.instagram.GraphBatchResponse;
+import com.somesimplify.somesimplify.dto.instagram.InstagramContainerStatus;
 import com.somesimplify.somesimplify.dto.instagram.InstagramMediaResponse;
 import com.somesimplify.somesimplify.exception.InstagramNotConnectedException;
 import com.somesimplify.somesimplify.exception.InstagramPublishException;
 import com.somesimplify.somesimplify.model.ContentFile;
 import com.somesimplify.somesimplify.model.Post;
 import com.somesimplify.somesimplify.model.SocialMediaConnection;
+import com.somesimplify.somesimplify.repository.PostRepository;
 import com.somesimplify.somesimplify.repository.SocialMediaConnectionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -27,22 +43,49 @@ public class InstagramService {
     private final RestTemplate restTemplate;
     private final S3Service s3Service;
     private final SocialMediaConnectionRepository connectionRepository;
+    private final PostRepository postRepository;
+    private final GraphApiRateLimiter rateLimiter;
+    private final GraphApiBatchClient batchClient;
+    private final ObjectMapper objectMapper;
 
-    private static final String GRAPH_API_URL = "https://graph.facebook.com/v18.0";
+    private static final Duration CONTAINER_REUSE_LIMIT = Duration.ofHours(23);
 
+    @Value("${instagram.graph-api-url:https://graph.facebook.com/v18.0}")
+    private String graphApiUrl;
+
+    @Value("${instagram.container-poll-interval:2s}")
+    private Duration containerPollInterval;
+
+    @Value("${instagram.container-ready-timeout:2m}")
+    private Duration containerReadyTimeout;
+
+    /**
+     * Publish a post as an Instagram carousel. Each stage is checkpointed on the post: the item
+     * containers, the carousel container and the published media ID. A retry resumes from the
+     * last completed stage and reuses containers that have not expired, and a post that already
+     * has a media ID is not published again.
+     */
     public String publishCarouselPost(Post post) {
+        if (post.getInstagramMediaId() != null) {
+            log.info("Post {} is already published as Instagram media {}", post.getId(), post.getInstagramMediaId());
+            return post.getInstagramMediaId();
+        }
+
         SocialMediaConnection connection = getActiveConnection();
 
         try {
-            List<String> mediaIds = uploadMediaContainers(post, connection);
+            discardExpiredContainers(post);
 
-            String carouselId = createCarouselContainer(
-                    mediaIds,
-                    post.getText(),
-                    connection
-            );
+            String carouselId = post.getInstagramCarouselContainerId();
+            if (carouselId == null) {
+                carouselId = prepareCarouselContainer(post, connection);
+            } else {
+                log.info("Resuming post {} from carousel container {}", post.getId(), carouselId);
+            }
 
             String publishedId = publishMedia(carouselId, connection);
+            postRepository.saveInstagramMediaId(post.getId(), publishedId);
+            post.setInstagramMediaId(publishedId);
 
             connection.setLastPublishedAt(OffsetDateTime.now());
             connection.setLastError(null);
@@ -54,46 +97,270 @@ public class InstagramService {
             log.error("Failed to publish to Instagram: {}", e.getMessage(), e);
             connection.setLastError(e.getMessage());
             connectionRepository.save(connection);
-            throw new InstagramPublishException("Failed to publish post", e);
+            throw toPublishException(e);
         }
     }
 
-    private List<String> uploadMediaContainers(Post post, SocialMediaConnection connection) {
-        List<String> containerIds = new ArrayList<>();
-
-        for (ContentFile contentFile : post.getContentFiles()) {
-            String imageUrl = s3Service.generateLongLivedPresignedUrl(contentFile.getS3Key());
-            String containerId = createImageContainer(
-                    imageUrl,
-                    connection.getPlatformAccountId(),
-                    connection.getAccessToken()
+    /**
+     * Create the containers for a post ahead of its publish time and wait until Instagram has
+     * processed them, so only media_publish is left when the post is due. Does nothing if the
+     * post already has a carousel container.
+     */
+    public void stageCarouselPost(Post post) {
+        SocialMediaConnection connection = getActiveConnection();
+
+        try {
+            discardExpiredContainers(post);
+
+            if (post.getInstagramCarouselContainerId() == null) {
+                String carouselId = prepareCarouselContainer(post, connection);
+                log.info("Staged post {} as carousel container {}", post.getId(), carouselId);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to stage post {} on Instagram: {}", post.getId(), e.getMessage());
+            throw toPublishException(e);
+        }
+    }
+
+    private String prepareCarouselContainer(Post post, SocialMediaConnection connection) {
+        List<String> mediaIds = uploadMediaContainers(post, connection);
+        awaitContainersFinished(post, mediaIds, connection);
+
+        String carouselId = createCarouselContainer(
+                mediaIds,
+                post.getText(),
+                connection
+        );
+        awaitContainersFinished(post, List.of(carouselId), connection);
+
+        // The caption is part of the carousel container, so it is only kept if the caption was not
+        // edited while the container was being made
+        String caption = post.getText() != null ? post.getText() : "";
+        if (postRepository.saveInstagramCarouselContainerId(post.getId(), carouselId, caption) == 0) {
+            throw new InstagramPublishException("The caption of post " + post.getId()
+                    + " was changed while its carousel container was created", null, null, null, null, true);
+        }
+        post.setInstagramCarouselContainerId(carouselId);
+        return carouselId;
+    }
+
+    /**
+     * Poll the status of the containers until Instagram has finished processing all of them. The
+     * pending containers are looked up together in one multi-ID request per poll. An item
+     * container that Instagram could not process is removed from the post's checkpoints, so the
+     * next attempt creates it again.
+     */
+    private void awaitContainersFinished(Post post, List<String> containerIds, SocialMediaConnection connection) {
+        long deadline = System.nanoTime() + containerReadyTimeout.toNanos();
+        List<String> pending = new ArrayList<>(containerIds);
+
+        while (true) {
+            Map<String, String> statusCodes = getContainerStatuses(pending, connection);
+            pending.removeIf(containerId -> {
+                String statusCode = statusCodes.get(containerId);
+                if ("ERROR".equals(statusCode)) {
+                    if (post.getInstagramItemContainerIds().values().remove(containerId)) {
+                        postRepository.deleteInstagramItemContainer(post.getId(), containerId);
+                    }
+                    throw new InstagramPublishException("Instagram could not process container " + containerId);
+                }
+                if ("EXPIRED".equals(statusCode)) {
+                    throw new InstagramPublishException("Instagram container " + containerId + " has expired",
+                            null, null, null, null, true);
+                }
+                return "FINISHED".equals(statusCode) || "PUBLISHED".equals(statusCode);
+            });
+
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            if (System.nanoTime() > deadline) {
+                throw new InstagramPublishException("Instagram did not finish processing containers " + pending,
+                        null, null, null, null, true);
+            }
+
+            try {
+                Thread.sleep(containerPollInterval.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InstagramPublishException("Interrupted while waiting for Instagram containers", e);
+            }
+        }
+    }
+
+    private Map<String, String> getContainerStatuses(List<String> containerIds, SocialMediaConnection connection) {
+        String url = String.format("%s/?ids=%s&fields=status_code&access_token=%s", graphApiUrl,
+                String.join(",", containerIds), connection.getAccessToken());
+
+        JsonNode response = graphGet(url, JsonNode.class, connection.getPlatformAccountId(), containerIds.size());
+
+        Map<String, String> statusCodes = new HashMap<>();
+        if (response != null) {
+            response.fields().forEachRemaining(entry -> {
+                InstagramContainerStatus status = objectMapper.convertValue(entry.getValue(),
+                        InstagramContainerStatus.class);
+                statusCodes.put(entry.getKey(), status.getStatusCode());
+            });
+        }
+        return statusCodes;
+    }
+
+    /**
+     * Instagram expires unpublished containers after 24 hours. Checkpointed containers older than
+     * that are forgotten so they are created again.
+     */
+    private void discardExpiredContainers(Post post) {
+        OffsetDateTime createdAt = post.getInstagramContainersCreatedAt();
+        if (createdAt == null || createdAt.plus(CONTAINER_REUSE_LIMIT).isAfter(OffsetDateTime.now())) {
+            return;
+        }
+
+        log.info("Instagram containers for post {} have expired, creating new ones", post.getId());
+        postRepository.deleteInstagramItemContainers(post.getId());
+        postRepository.clearInstagramContainers(post.getId());
+        post.getInstagramItemContainerIds().clear();
+        post.setInstagramCarouselContainerId(null);
+        post.setInstagramContainersCreatedAt(null);
+    }
+
+    /**
+     * Keep the HTTP status and Graph API error code of the failed call, so callers can decide
+     * whether and when to retry without looking at the message. Failures that did not come from
+     * Instagram, such as a database error, are rethrown as they are, since they say nothing about
+     * whether Instagram would accept the post.
+     */
+    private InstagramPublishException toPublishException(Exception e) {
+        if (e instanceof InstagramPublishException publishException) {
+            return publishException;
+        }
+
+        if (e instanceof HttpStatusCodeException statusException) {
+            return toPublishException(statusException.getStatusCode().value(),
+                    readGraphApiError(statusException.getResponseBodyAsString()), e);
+        }
+
+        if (e instanceof ResourceAccessException) {
+            return new InstagramPublishException("Failed to publish post: no response from Instagram",
+                    e, null, null, null, true);
+        }
+
+        if (e instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+
+        return new InstagramPublishException("Failed to publish post", e, null, null, null, true);
+    }
+
+    /**
+     * The failed operation of a batch request, or null if Meta did not get to it in time
+     */
+    private InstagramPublishException toPublishException(GraphBatchResponse response) {
+        if (response == null) {
+            return new InstagramPublishException("Failed to publish post: batch operation timed out",
+                    null, null, null, null, true);
+        }
+        return toPublishException(response.getCode(), readGraphApiError(response.getBody()), null);
+    }
+
+    private InstagramPublishException toPublishException(int httpStatus, GraphApiErrorResponse.GraphApiError error,
+                                                         Exception cause) {
+        if (error != null) {
+            return new InstagramPublishException(
+                    "Failed to publish post: " + error.getMessage(),
+                    cause,
+                    httpStatus,
+                    error.getCode(),
+                    error.getErrorSubcode(),
+                    Boolean.TRUE.equals(error.getIsTransient())
             );
-            containerIds.add(containerId);
         }
+        return new InstagramPublishException("Failed to publish post", cause, httpStatus, null, null, false);
+    }
 
-        return containerIds;
+    private GraphApiErrorResponse.GraphApiError readGraphApiError(String body) {
+        try {
+            GraphApiErrorResponse response = objectMapper.readValue(body, GraphApiErrorResponse.class);
+            return response != null ? response.getError() : null;
+        } catch (Exception parseException) {
+            log.debug("Could not parse Graph API error response: {}", body);
+            return null;
+        }
     }
 
-    private String createImageContainer(String imageUrl, String accountId, String accessToken) {
-        String url = String.format("%s/%s/media", GRAPH_API_URL, accountId);
+    /**
+     * Create one carousel item container per content file, reusing checkpointed containers. The
+     * missing containers are created with a single Graph API batch request, and every container
+     * that was created is checkpointed even if others in the batch failed. The returned IDs are
+     * in the same order as the post's content files.
+     */
+    private List<String> uploadMediaContainers(Post post, SocialMediaConnection connection) {
+        List<ContentFile> contentFiles = post.getContentFiles();
+        Map<String, String> checkpointedIds = post.getInstagramItemContainerIds();
 
-        Map<String, String> params = new HashMap<>();
-        params.put("image_url", imageUrl);
-        params.put("is_carousel_item", "true");
-        params.put("access_token", accessToken);
-
-        InstagramMediaResponse response = restTemplate.postForObject(
-                url,
-                params,
-                InstagramMediaResponse.class
-        );
+        if (post.getInstagramContainersCreatedAt() == null) {
+            OffsetDateTime now = OffsetDateTime.now();
+            postRepository.saveInstagramContainersCreatedAt(post.getId(), now);
+            post.setInstagramContainersCreatedAt(now);
+        }
 
-        return response.getId();
+        List<ContentFile> missing = contentFiles.stream()
+                .filter(contentFile -> !checkpointedIds.containsKey(contentFile.getId()))
+                .toList();
+
+        if (!missing.isEmpty()) {
+            String relativeUrl = connection.getPlatformAccountId() + "/media";
+            List<GraphBatchRequest> requests = missing.stream()
+                    .map(contentFile -> GraphBatchRequest.post(relativeUrl, formEncode(Map.of(
+                            "image_url", s3Service.generateLongLivedPresignedUrl(contentFile.getS3Key()),
+                            "is_carousel_item", "true"
+                    ))))
+                    .toList();
+
+            List<GraphBatchResponse> responses = batchClient.execute(
+                    connection.getPlatformAccountId(), connection.getAccessToken(), requests);
+
+            InstagramPublishException failure = null;
+            for (int i = 0; i < missing.size(); i++) {
+                GraphBatchResponse response = responses.get(i);
+                if (response == null || !response.isSuccessful()) {
+                    failure = failure != null ? failure : toPublishException(response);
+                    continue;
+                }
+
+                String contentFileId = missing.get(i).getId();
+                String containerId = readMediaId(response.getBody());
+                postRepository.saveInstagramItemContainer(post.getId(), contentFileId, containerId);
+                checkpointedIds.put(contentFileId, containerId);
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        return contentFiles.stream()
+                .map(contentFile -> checkpointedIds.get(contentFile.getId()))
+                .toList();
+    }
+
+    private String readMediaId(String body) {
+        try {
+            return objectMapper.readValue(body, InstagramMediaResponse.class).getId();
+        } catch (JsonProcessingException e) {
+            throw new InstagramPublishException("Could not read Instagram container ID", e);
+        }
+    }
+
+    private String formEncode(Map<String, String> params) {
+        return params.entrySet().stream()
+                .map(param -> param.getKey() + "=" + URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
     }
 
     private String createCarouselContainer(List<String> mediaIds, String caption,
                                            SocialMediaConnection connection) {
-        String url = String.format("%s/%s/media", GRAPH_API_URL,
+        String url = String.format("%s/%s/media", graphApiUrl,
                 connection.getPlatformAccountId());
 
         Map<String, Object> params = new HashMap<>();
@@ -102,32 +369,56 @@ public class InstagramService {
         params.put("caption", caption != null ? caption : "");
         params.put("access_token", connection.getAccessToken());
 
-        InstagramMediaResponse response = restTemplate.postForObject(
-                url,
-                params,
-                InstagramMediaResponse.class
-        );
+        InstagramMediaResponse response = graphPost(url, params, InstagramMediaResponse.class,
+                connection.getPlatformAccountId());
 
         return response.getId();
     }
 
     private String publishMedia(String containerId, SocialMediaConnection connection) {
-        String url = String.format("%s/%s/media_publish", GRAPH_API_URL,
+        rateLimiter.acquirePublish(connection.getPlatformAccountId());
+
+        String url = String.format("%s/%s/media_publish", graphApiUrl,
                 connection.getPlatformAccountId());
 
         Map<String, String> params = new HashMap<>();
         params.put("creation_id", containerId);
         params.put("access_token", connection.getAccessToken());
 
-        InstagramMediaResponse response = restTemplate.postForObject(
-                url,
-                params,
-                InstagramMediaResponse.class
-        );
+        InstagramMediaResponse response = graphPost(url, params, InstagramMediaResponse.class,
+                connection.getPlatformAccountId());
 
         return response.getId();
     }
 
+    /**
+     * Graph API calls go through the rate limiter, and the usage headers of every response,
+     * including error responses, are fed back to it.
+     */
+    private <T> T graphGet(String url, Class<T> responseType, String accountId, int calls) {
+        rateLimiter.acquireCalls(accountId, calls);
+        try {
+            ResponseEntity<T> response = restTemplate.getForEntity(url, responseType);
+            rateLimiter.recordUsage(accountId, response.getHeaders());
+            return response.getBody();
+        } catch (HttpStatusCodeException e) {
+            rateLimiter.recordUsage(accountId, e.getResponseHeaders());
+            throw e;
+        }
+    }
+
+    private <T> T graphPost(String url, Object body, Class<T> responseType, String accountId) {
+        rateLimiter.acquireCall(accountId);
+        try {
+            ResponseEntity<T> response = restTemplate.postForEntity(url, body, responseType);
+            rateLimiter.recordUsage(accountId, response.getHeaders());
+            return response.getBody();
+        } catch (HttpStatusCodeException e) {
+            rateLimiter.recordUsage(accountId, e.getResponseHeaders());
+            throw e;
+        }
+    }
+
     private SocialMediaConnection getActiveConnection() {
         return connectionRepository.findByPlatformAndIsActiveTrue(PlatformType.INSTAGRAM)
                 .orElseThrow(() -> new InstagramNotConnectedException(
@@ -0,0 +1,51 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.model.ContentFile;
+import com.somesimplify.somesimplify.repository.ContentFileRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.content.Media;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Prepares images for the language model. The model gets a downscaled JPEG inline instead of a
+ * link to the original, which saves input tokens, the provider's fetch from S3 and S3 egress.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ModelImageService {
+
+    private final S3Service s3Service;
+    private final ContentFileRepository contentFileRepository;
+
+    /**
+     * The model image of the content file as inline media. Files uploaded before model images
+     * existed get one created from the original on first use.
+     */
+    public Media toMedia(ContentFile contentFile) {
+        return new Media(MimeTypeUtils.IMAGE_JPEG, new ByteArrayResource(getModelImage(contentFile)));
+    }
+
+    private byte[] getModelImage(ContentFile contentFile) {
+        if (contentFile.getModelImageS3Key() != null) {
+            return s3Service.downloadFile(contentFile.getModelImageS3Key());
+        }
+
+        try {
+            byte[] modelImage = s3Service.createModelImage(s3Service.downloadFile(contentFile.getS3Key()));
+            String modelImageS3Key = s3Service.uploadModelImage(modelImage, contentFile.getS3Key());
+            contentFileRepository.saveModelImageS3Key(contentFile.getId(), modelImageS3Key);
+            contentFile.setModelImageS3Key(modelImageS3Key);
+            log.info("Created model image for content file {}", contentFile.getId());
+            return modelImage;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create model image for content file " + contentFile.getId(), e);
+        }
+    }
+}
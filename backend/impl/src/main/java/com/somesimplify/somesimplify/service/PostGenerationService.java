@@ -0,0 +1,208 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.GenerationConfig;
+import com.somesimplify.somesimplify.model.ContentFile;
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.multitenancy.executor.TenantFairExecutor;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import com.somesimplify.somesimplify.repository.ContentFileRepository;
+import com.somesimplify.somesimplify.service.PostService.GeneratedPost;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Generates draft posts for many tenants at once. Every content file is a task on the generation
+ * executor, which limits how many captions are generated at once in total and per tenant. No
+ * transaction is open while a caption is generated; finished posts are saved per tenant in
+ * batches of {@code generation.save-batch-size}, each in its own short transaction.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PostGenerationService {
+
+    private final TenantFairExecutor generationExecutor;
+    private final PostService postService;
+    private final ContentFileRepository contentFileRepository;
+    private final GenerationConfig generationConfig;
+    private final TokenUsageService tokenUsageService;
+
+    /**
+     * Queue generation for the content files of the tenants that have not been used yet, and
+     * wait until all of them are done. A file that fails is left unused and tried again next run.
+     */
+    public void generatePosts(List<Tenant> tenants) {
+        List<CompletableFuture<Void>> futures = tenants.stream()
+                .map(tenant -> generatePostsForTenant(tenant, GenerationProgress.NONE))
+                .toList();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    }
+
+    /**
+     * Queue generation for the unused content files of one tenant. The returned future completes
+     * when every file has been tried and the last generated posts are saved. Files that have not
+     * been started when {@code progress} reports cancellation are skipped.
+     */
+    public CompletableFuture<Void> generatePostsForTenant(Tenant tenant, GenerationProgress progress) {
+        List<ContentFile> contentFiles = findFilesForGeneration(tenant.getId());
+        log.info("Generating posts for {} new content files for tenant {}", contentFiles.size(), tenant.getName());
+        progress.onStarted(contentFiles.size());
+
+        GeneratedPostBatch batch = new GeneratedPostBatch(tenant.getId(), progress);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        int imagesPerRequest = Math.max(generationConfig.getImagesPerRequest(), 1);
+        for (int from = 0; from < contentFiles.size(); from += imagesPerRequest) {
+            List<ContentFile> chunk = contentFiles.subList(from, Math.min(from + imagesPerRequest, contentFiles.size()));
+            futures.add(generationExecutor
+                    .submit(tenant.getId(), "generate-" + chunk.get(0).getId(), () -> {
+                        if (progress.isCancelled()) {
+                            return;
+                        }
+                        if (!tokenUsageService.hasBudgetLeft(tenant.getId())) {
+                            // The files stay unused, so they are generated for once the tenant has budget again
+                            log.info("Tenant {} has used its daily token budget, deferring {} content files",
+                                    tenant.getName(), chunk.size());
+                            progress.onFailed(chunk.size(), "Daily token budget used up, generation deferred");
+                            return;
+                        }
+                        generatePosts(chunk, batch);
+                    })
+                    .exceptionally(e -> {
+                        log.warn("Could not generate posts for {} content files starting with {}: {}",
+                                chunk.size(), chunk.get(0).getId(), e.getMessage());
+                        progress.onFailed(chunk.size(), e.getMessage());
+                        return null;
+                    }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenRun(batch::flush);
+    }
+
+    private List<ContentFile> findFilesForGeneration(String tenantId) {
+        String previousTenantId = TenantContext.getTenantId();
+        try {
+            TenantContext.setTenantId(tenantId);
+            return contentFileRepository.findUnusedForGeneration(tenantId,
+                    PageRequest.of(0, generationConfig.getMaxFilesPerRun()));
+        } finally {
+            restoreTenantContext(previousTenantId);
+        }
+    }
+
+    private void generatePosts(List<ContentFile> contentFiles, GeneratedPostBatch batch) {
+        contentFiles.forEach(contentFile -> log.info("Lager instagram post for bilde '{}'", contentFile.getFileName()));
+        // The chat model enforces chat-model.timeout itself, through its deadline and circuit breaker
+        Map<String, String> captions = postService.generateTextsForPosts(contentFiles);
+
+        int missing = 0;
+        for (ContentFile contentFile : contentFiles) {
+            String caption = captions.get(contentFile.getId());
+            if (caption != null) {
+                batch.add(new GeneratedPost(contentFile, caption));
+            } else {
+                missing++;
+            }
+        }
+
+        if (missing > 0) {
+            batch.progress.onFailed(missing, "No caption was generated for " + missing + " content files");
+        }
+    }
+
+    private static void restoreTenantContext(String tenantId) {
+        if (tenantId != null) {
+            TenantContext.setTenantId(tenantId);
+        } else {
+            TenantContext.clear();
+        }
+    }
+
+    /**
+     * Receives progress of a generation run. Called from the generation executor threads.
+     */
+    public interface GenerationProgress {
+        GenerationProgress NONE = new GenerationProgress() {
+        };
+
+        default boolean isCancelled() {
+            return false;
+        }
+
+        default void onStarted(int totalFiles) {
+        }
+
+        default void onSaved(int posts) {
+        }
+
+        default void onFailed(int files, String errorMessage) {
+        }
+    }
+
+    /**
+     * Generated posts of one tenant waiting to be saved. A failed save only loses that batch; its
+     * content files stay unused and are generated for again next run.
+     */
+    private class GeneratedPostBatch {
+        private final String tenantId;
+        private final GenerationProgress progress;
+        private final List<GeneratedPost> pending = new ArrayList<>();
+
+        private GeneratedPostBatch(String tenantId, GenerationProgress progress) {
+            this.tenantId = tenantId;
+            this.progress = progress;
+        }
+
+        private void add(GeneratedPost generatedPost) {
+            List<GeneratedPost> full = null;
+            synchronized (this) {
+                pending.add(generatedPost);
+                if (pending.size() >= generationConfig.getSaveBatchSize()) {
+                    full = new ArrayList<>(pending);
+                    pending.clear();
+                }
+            }
+
+            if (full != null) {
+                save(full);
+            }
+        }
+
+        private void flush() {
+            List<GeneratedPost> remaining;
+            synchronized (this) {
+                remaining = new ArrayList<>(pending);
+                pending.clear();
+            }
+
+            if (remaining.isEmpty()) {
+                return;
+            }
+
+            String previousTenantId = TenantContext.getTenantId();
+            try {
+                TenantContext.setTenantId(tenantId);
+                save(remaining);
+            } finally {
+                restoreTenantContext(previousTenantId);
+            }
+        }
+
+        private void save(List<GeneratedPost> generatedPosts) {
+            try {
+                progress.onSaved(postService.saveGeneratedPosts(generatedPosts));
+            } catch (Exception e) {
+                log.error("Could not save {} generated posts for tenant {}: {}",
+                        generatedPosts.size(), tenantId, e.getMessage(), e);
+                progress.onFailed(generatedPosts.size(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.model.PlatformType;
+import com.somesimplify.model.PostStatus;
+import com.somesimplify.somesimplify.config.PublishingConfig;
+import com.somesimplify.somesimplify.event.PostScheduleChangedEvent;
+import com.somesimplify.somesimplify.exception.InstagramPublishException;
+import com.somesimplify.somesimplify.exception.InstagramRateLimitedException;
+import com.somesimplify.somesimplify.model.Post;
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.multitenancy.executor.TenantFairExecutor;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import com.somesimplify.somesimplify.repository.PostRepository;
+import com.somesimplify.somesimplify.repository.PostRepository.DuePost;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PostPublishService {
+
+    private static final String UNEXPECTED_ERROR_CODE = "UNEXPECTED_ERROR";
+
+    private final TenantRepository tenantRepository;
+    private final PostRepository postRepository;
+    private final InstagramService instagramService;
+    private final PublishQueueService publishQueueService;
+    private final PublishRetryPolicy retryPolicy;
+    private final TenantFairExecutor publishExecutor;
+    private final PublishingConfig publishingConfig;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Claim due posts for this node and hand them to the publish executor. Only as many posts
+     * are claimed as the executor has room to queue, so the rest stay available to other nodes.
+     * Returns the number of posts claimed.
+     */
+    public int publishDuePosts() {
+        List<DuePost> duePosts = publishQueueService.claimDuePosts(getClaimLimit());
+        forEachTenant(duePosts, this::dispatchPostsForTenant);
+
+        log.debug("Publish executor has {} queued and {} in-flight posts",
+                publishExecutor.getQueuedCount(), publishExecutor.getInFlightCount());
+        return duePosts.size();
+    }
+
+    /**
+     * Claim posts that are due within the staging look-ahead and create their Instagram
+     * containers ahead of time on the publish executor.
+     */
+    public int stageUpcomingPosts() {
+        List<DuePost> upcomingPosts = publishQueueService.claimPostsForStaging(getClaimLimit());
+        forEachTenant(upcomingPosts, this::dispatchStagingForTenant);
+        return upcomingPosts.size();
+    }
+
+    public int getClaimLimit() {
+        return Math.min(publishingConfig.getClaimBatchSize(), publishExecutor.getRemainingCapacity());
+    }
+
+    private void forEachTenant(List<DuePost> posts, BiConsumer<Tenant, List<String>> action) {
+        if (posts.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<String>> postIdsByTenant = posts.stream()
+                .collect(Collectors.groupingBy(
+                        DuePost::getTenantId,
+                        LinkedHashMap::new,
+                        Collectors.mapping(DuePost::getPostId, Collectors.toList())
+                ));
+
+        Map<String, Tenant> tenants = tenantRepository.findAllById(postIdsByTenant.keySet()).stream()
+                .collect(Collectors.toMap(Tenant::getId, Function.identity()));
+
+        postIdsByTenant.forEach((tenantId, postIds) -> {
+            Tenant tenant = tenants.get(tenantId);
+            if (tenant == null) {
+                log.warn("Skipping {} posts for unknown tenant {}", postIds.size(), tenantId);
+                return;
+            }
+
+            try {
+                TenantContext.setTenantId(tenantId);
+                action.accept(tenant, postIds);
+            } catch (Exception e) {
+                log.error("Error publishing posts for tenant {}: {}",
+                        tenant.getName(), e.getMessage(), e);
+            } finally {
+                TenantContext.clear();
+            }
+        });
+    }
+
+    private void dispatchPostsForTenant(Tenant tenant, List<String> postIds) {
+        List<Post> postsToPublish = postRepository.findAllWithContentFilesByIdIn(postIds);
+
+        log.info("Dispatching {} Instagram posts for tenant {}",
+                postsToPublish.size(), tenant.getName());
+
+        for (Post post : postsToPublish) {
+            // Only Instagram posts are claimed, but the platforms may have been edited since
+            if (!post.getPlatforms().contains(PlatformType.INSTAGRAM)) {
+                publishQueueService.release(post.getId(), PostStatus.SCHEDULED,
+                        post.getPublishAttempts(), post.getNextAttemptAt(), post.getLastPublishErrorCode());
+                continue;
+            }
+
+            publishExecutor.submit(tenant.getId(), post.getId(), () -> publishSinglePost(post, tenant))
+                    .exceptionally(e -> {
+                        log.warn("Could not publish post {}: {}", post.getId(), e.getMessage());
+                        return null;
+                    });
+        }
+    }
+
+    private void dispatchStagingForTenant(Tenant tenant, List<String> postIds) {
+        List<Post> postsToStage = postRepository.findAllWithContentFilesByIdIn(postIds);
+
+        log.info("Staging {} Instagram posts for tenant {}",
+                postsToStage.size(), tenant.getName());
+
+        for (Post post : postsToStage) {
+            if (!post.getPlatforms().contains(PlatformType.INSTAGRAM)) {
+                publishQueueService.releaseStaging(post.getId());
+                continue;
+            }
+
+            publishExecutor.submit(tenant.getId(), "stage-" + post.getId(), () -> stageSinglePost(post, tenant))
+                    .exceptionally(e -> {
+                        log.warn("Could not stage post {}: {}", post.getId(), e.getMessage());
+                        publishQueueService.releaseStaging(post.getId());
+                        return null;
+                    });
+        }
+    }
+
+    private void stageSinglePost(Post post, Tenant tenant) {
+        try {
+            log.info("Staging post {} on Instagram for tenant {}", post.getId(), tenant.getName());
+            instagramService.stageCarouselPost(post);
+        } catch (InstagramPublishException e) {
+            log.warn("Could not stage post {}, its containers will be created when it is due: {}",
+                    post.getId(), e.getMessage());
+        } finally {
+            publishQueueService.releaseStaging(post.getId());
+            // If staging ran past the publish time the timer entry was skipped, so schedule it again
+            eventPublisher.publishEvent(new PostScheduleChangedEvent(
+                    post.getId(), PostStatus.SCHEDULED, post.getPublishAt()));
+        }
+    }
+
+    private void publishSinglePost(Post post, Tenant tenant) {
+        int attempt = post.getPublishAttempts() + 1;
+
+        try {
+            log.info("Publishing post {} to Instagram for tenant {} (attempt {})",
+                    post.getId(), tenant.getName(), attempt);
+
+            String instagramMediaId = instagramService.publishCarouselPost(post);
+
+            publishQueueService.release(post.getId(), PostStatus.PUBLISHED, attempt, null, null);
+
+            log.info("Successfully published post {} to Instagram. Media ID: {}",
+                    post.getId(), instagramMediaId);
+
+        } catch (InstagramRateLimitedException e) {
+            // No Graph API call was made, so this does not count as an attempt
+            OffsetDateTime nextAttemptAt = OffsetDateTime.now().plus(e.getRetryAfter());
+            publishQueueService.release(post.getId(), PostStatus.SCHEDULED,
+                    post.getPublishAttempts(), nextAttemptAt, e.getErrorCode());
+            eventPublisher.publishEvent(new PostScheduleChangedEvent(post.getId(), PostStatus.SCHEDULED, nextAttemptAt));
+            log.info("Instagram quota used up, deferring post {} to {}", post.getId(), nextAttemptAt);
+
+        } catch (InstagramPublishException e) {
+            log.error("Failed to publish post {} to Instagram ({}): {}",
+                    post.getId(), e.getErrorCode(), e.getMessage());
+
+            if (!retryPolicy.isRetryable(e)) {
+                publishQueueService.release(post.getId(), PostStatus.REJECTED, attempt, null, e.getErrorCode());
+                log.warn("Marked post {} as REJECTED due to non-retryable error", post.getId());
+            } else if (!retryPolicy.hasAttemptsLeft(attempt)) {
+                publishQueueService.release(post.getId(), PostStatus.FAILED, attempt, null, e.getErrorCode());
+                log.warn("Marked post {} as FAILED after {} attempts", post.getId(), attempt);
+            } else {
+                OffsetDateTime nextAttemptAt = retryPolicy.nextAttemptAt(attempt, retryPolicy.isRateLimited(e));
+                publishQueueService.release(post.getId(), PostStatus.SCHEDULED, attempt, nextAttemptAt, e.getErrorCode());
+                eventPublisher.publishEvent(new PostScheduleChangedEvent(post.getId(), PostStatus.SCHEDULED, nextAttemptAt));
+                log.info("Will retry post {} at {}", post.getId(), nextAttemptAt);
+            }
+
+        } catch (RuntimeException e) {
+            // E.g. the tenant is no longer connected to Instagram, or a database error. Release the
+            // lease so the post is not stuck in PUBLISHING, and count the attempt so it is
+            // eventually marked as failed.
+            log.error("Unexpected error publishing post {}: {}", post.getId(), e.getMessage(), e);
+
+            if (!retryPolicy.hasAttemptsLeft(attempt)) {
+                publishQueueService.release(post.getId(), PostStatus.FAILED, attempt, null, UNEXPECTED_ERROR_CODE);
+                log.warn("Marked post {} as FAILED after {} attempts", post.getId(), attempt);
+            } else {
+                OffsetDateTime nextAttemptAt = retryPolicy.nextAttemptAt(attempt, false);
+                publishQueueService.release(post.getId(), PostStatus.SCHEDULED, attempt, nextAttemptAt, UNEXPECTED_ERROR_CODE);
+                eventPublisher.publishEvent(new PostScheduleChangedEvent(post.getId(), PostStatus.SCHEDULED, nextAttemptAt));
+                log.info("Will retry post {} at {}", post.getId(), nextAttemptAt);
+            }
+        }
+    }
+}
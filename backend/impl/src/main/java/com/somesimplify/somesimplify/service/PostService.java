@@ -1,29 +1,39 @@
 package com.somesimplify.somesimplify.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.somesimplify.model.PlatformType;
 import com.somesimplify.model.PostStatus;
+import com.somesimplify.somesimplify.event.PostScheduleChangedEvent;
+import com.somesimplify.somesimplify.exception.BadRequestException;
+import com.somesimplify.somesimplify.exception.ConflictException;
 import com.somesimplify.somesimplify.model.ContentFile;
 import com.somesimplify.somesimplify.model.Post;
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
 import com.somesimplify.somesimplify.repository.ContentFileRepository;
 import com.somesimplify.somesimplify.repository.PostRepository;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.SystemPromptTemplate;
-import org.springframework.ai.content.Media;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
 
-import java.net.URI;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -31,117 +41,160 @@ import java.util.Map;
 public class PostService {
 
     private final ChatModel chatModel;
-    private final S3Service s3Service;
     private final PostRepository postRepository;
     private final ContentFileRepository contentFileRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CaptionCacheService captionCacheService;
+    private final ModelImageService modelImageService;
+    private final CaptionPromptService captionPromptService;
+    private final ObjectMapper objectMapper;
 
+    private static final String SINGLE_IMAGE_REQUEST =
+            "Kan du skrive en tekst for dette bildet vi planlegger å legge ut på Instagram?";
+
+    /**
+     * Save generated captions as draft posts and mark their content files as used, in one short
+     * transaction. Files are marked first, and only the ones this call managed to mark get a
+     * draft, so a file that another run got to first is not given a second one. The inserts are
+     * sent as a JDBC batch.
+     */
     @Transactional
-    public void generatePosts(String tenantId) {
-        List<ContentFile> contentFiles = contentFileRepository.findAllByTenantId(tenantId);
-        contentFiles.forEach(this::generateSinglePost);
-    }
+    public int saveGeneratedPosts(List<GeneratedPost> generatedPosts) {
+        Set<String> markedIds = new HashSet<>(contentFileRepository.markPostGenerated(
+                generatedPosts.stream().map(generatedPost -> generatedPost.contentFile().getId()).toList(),
+                OffsetDateTime.now()));
+
+        List<Post> posts = generatedPosts.stream()
+                .filter(generatedPost -> markedIds.contains(generatedPost.contentFile().getId()))
+                .map(generatedPost -> {
+                    Post post = new Post();
+                    post.setText(generatedPost.text());
+                    post.setContentFiles(List.of(generatedPost.contentFile()));
+                    post.setPlatforms(List.of(PlatformType.INSTAGRAM));
+                    post.setStatus(PostStatus.DRAFT);
+                    return post;
+                })
+                .toList();
+        postRepository.saveAll(posts);
 
-    public void generateSinglePost(ContentFile contentFile) {
-        log.info("Lager instagram post for bilde '{}'", contentFile.getFileName());
-        // choose a random post (the newer the image, the more likely it's picked)
-        String text = generateTextForPost(contentFile);
-        log.info(contentFile.getS3Key() + " " + text);
-
-        Post post = new Post();
-        post.setText(text);
-        post.setContentFiles(List.of(contentFile));
-        post.setPlatforms(List.of(PlatformType.INSTAGRAM));
-        post.setStatus(PostStatus.DRAFT);
-        postRepository.save(post);
+        if (posts.size() < generatedPosts.size()) {
+            log.info("Skipped {} generated posts whose content files already had a post",
+                    generatedPosts.size() - posts.size());
+        }
+        return posts.size();
     }
 
     public String generateTextForPost(ContentFile contentFile) {
-        String system = """
-        Du er en erfaren, selvsikker og kreativ Social Media Manager for '{product_name}'.
-        Produkttype: {product_type} (f.eks. CRM, Prosjektstyring, Regnskap, Marketing Automation).
-        Dagens dato: {current_date} ({day_of_week}).
-        
-        DIN OPPGAVE:
-        Analyser bildet og skriv en caption til {platform}.
-        Målet er å fange oppmerksomhet, bygge "pain awareness" eller FOMO, og drive signups/demo-bookinger.
-        
-        ---
-        
-        ### VIKTIGE REGLER FOR TONE OF VOICE (STRENGT)
-        1.  **Vær muntlig:** Skriv som et menneske, ikke en produktbrosjyre.
-        2.  **Forbudte ord:** ALDRI bruk ordene "løsning", "effektivisere", "sømløst", "kraftig", "brukervennlig" eller "neste nivå". Dette er "AI-språk".
-        3.  **Show, don't tell:** Ikke si at produktet er bra. Beskriv heller resultatet – sparte timer, færre feil, konkret output.
-        4.  **Lengde:** Hold det kort og punchy. Ingen lange avhandlinger.
-        
-        ---
-        
-        ### EKSEMPLER PÅ GOD VS. DÅRLIG TEKST (LÆR AV DISSE)
-        
-        EKSEMPEL 1 (Feature/Dashboard):
-        ❌ Dårlig: "Vår kraftige dashboard-løsning effektiviserer arbeidsflyten din. Prøv i dag!"
-        ✅ Bra: "Fra 47 åpne faner til én. 🎯 Regnskapet ditt fortjener bedre enn copy-paste mellom Excel-ark."
-        
-        EKSEMPEL 2 (Team/Kultur):
-        ❌ Dårlig: "Vi har et fantastisk team som jobber hardt for å levere en brukervennlig løsning."
-        ✅ Bra: "Shipping på en fredag? Jada, vi liker å leve farlig. 🚀 Nytt i appen: [feature]"
-        
-        EKSEMPEL 3 (Lansering/Oppdatering):
-        ❌ Dårlig: "Vi er stolte av å lansere vår nye integrasjon som tar produktet til neste nivå."
-        ✅ Bra: "ENDELIG! 🔥 Fordi dere maste. Slack-integrasjon er LIVE. Aldri mer 'glemte du fakturaen?'-meldinger."
-        
-        ---
-        
-        ### STEG-FOR-STEG INSTRUKSJONER
-        
-        STEG 1: KATEGORISER BILDET
-        - Er det **SCREENSHOT/FEATURE**? -> Fokus: Konkret problem som løses, før/etter.
-        - Er det **TEAM/KONTOR**? -> Fokus: Personlighet, bak kulissene, humor.
-        - Er det **GRAFIKK/ANNOUNCEMENT**? -> Fokus: Hype + tydelig nytte (Bruk CAPS LOCK i overskrift).
-        
-        STEG 2: SKRIV TEKSTEN
-        Tilpass språket til {product_type}.
-        - Startup/Dev tools = Uformelt, memes, teknisk humor.
-        - Enterprise/B2B = Profesjonelt men menneskelig, fokus på ROI.
-        - SMB = Folkelig, relaterbart, "vi skjønner smerten".
-        
-        STEG 3: ENGASJEMENT & AVSLUTNING
-        Avslutt alltid med et relevant spørsmål eller en oppfordring før linken.
-        - Hvis screenshot: "Hvem andre har druknet i regneark?"
-        - Hvis team: "Hva shipper DU denne uken?"
-        - Hvis lansering: "Early access? Link i bio 👀"
-        
-        ---
-        
-        ### OUTPUT FORMAT
-        [Emoji] [Hook/Overskrift]
-        [Kort brødtekst]
-        [Spørsmål/Engagement]
-        
-        👇
-        {cta_text}: {ctalink}
-        
-        [Start Generering Nå]
-
-        """;
-
-        SystemPromptTemplate systemPromptTemplate = new SystemPromptTemplate(system);
-        Prompt systemPrompt = systemPromptTemplate.create(Map.of(
-                "product_name", "Bilago",
-                "product_type", "Regnskapssystem for ENK",
-                "current_date", "17. desember 2025",
-                "day_of_week", "Onsdag",
-                "platform", "LinkedIn",
-                "cta_text", "Prøv gratis",
-                "ctalink", "https://bilago.no/start"
-        ));
+        return generateTextsForPosts(List.of(contentFile)).get(contentFile.getId());
+    }
+
+    /**
+     * Generate captions for several images, by content file ID. Cached captions are reused, and
+     * the remaining images are sent together in one request that asks for a JSON array with a
+     * caption per image. Images the response has no caption for, e.g. because it could not be
+     * parsed, are generated one by one.
+     */
+    public Map<String, String> generateTextsForPosts(List<ContentFile> contentFiles) {
+        String systemPrompt = captionPromptService.getSystemPrompt(TenantContext.getTenantId());
+        String cachePrompt = systemPrompt + "\n" + SINGLE_IMAGE_REQUEST;
+
+        Map<String, String> captions = new HashMap<>();
+        List<ContentFile> uncached = new ArrayList<>();
+        for (ContentFile contentFile : contentFiles) {
+            captionCacheService.get(contentFile, cachePrompt).ifPresentOrElse(
+                    caption -> captions.put(contentFile.getId(), caption),
+                    () -> uncached.add(contentFile));
+        }
+
+        if (uncached.size() > 1) {
+            Map<String, String> batchCaptions = generateBatch(systemPrompt, uncached);
+            captions.putAll(batchCaptions);
+            uncached.stream()
+                    .filter(contentFile -> batchCaptions.containsKey(contentFile.getId()))
+                    .forEach(contentFile -> captionCacheService.put(contentFile, cachePrompt,
+                            batchCaptions.get(contentFile.getId())));
+        }
+
+        for (ContentFile contentFile : uncached) {
+            if (!captions.containsKey(contentFile.getId())) {
+                String caption = generateSingle(systemPrompt, contentFile);
+                captionCacheService.put(contentFile, cachePrompt, caption);
+                captions.put(contentFile.getId(), caption);
+            }
+        }
 
+        return captions;
+    }
+
+    /**
+     * Generate a new caption for the images of a post, streamed as it is produced. The cache is
+     * bypassed, since the point is to get a different caption.
+     */
+    public Flux<String> streamTextForPost(List<ContentFile> contentFiles) {
+        String systemPrompt = captionPromptService.getSystemPrompt(TenantContext.getTenantId());
         UserMessage userMessage = UserMessage.builder()
-                .media(new Media(MimeTypeUtils.IMAGE_PNG,
-                        URI.create(s3Service.generatePresignedUrl(contentFile.getS3Key()))))
-                .text("Kan du skrive en tekst for dette bildet vi planlegger å legge ut på Instagram?")
+                .media(contentFiles.stream().map(modelImageService::toMedia).toList())
+                .text(captionPromptService.getDateLine() + "\n" + (contentFiles.size() == 1
+                        ? SINGLE_IMAGE_REQUEST
+                        : "Kan du skrive én tekst for denne karusellen vi planlegger å legge ut på Instagram?"))
                 .build();
 
-        return chatModel.call(systemPrompt.getSystemMessage(), userMessage);
+        return chatModel.stream(new SystemMessage(systemPrompt), userMessage);
+    }
+
+    private String generateSingle(String systemPrompt, ContentFile contentFile) {
+        UserMessage userMessage = UserMessage.builder()
+                .media(modelImageService.toMedia(contentFile))
+                .text(captionPromptService.getDateLine() + "\n" + SINGLE_IMAGE_REQUEST)
+                .build();
+
+        return chatModel.call(new SystemMessage(systemPrompt), userMessage);
+    }
+
+    private Map<String, String> generateBatch(String systemPrompt, List<ContentFile> contentFiles) {
+        StringBuilder request = new StringBuilder(captionPromptService.getDateLine())
+                .append("\nKan du skrive en tekst for hvert av disse ")
+                .append(contentFiles.size())
+                .append(" bildene vi planlegger å legge ut på Instagram? Bildene kommer i denne rekkefølgen:\n");
+        for (int i = 0; i < contentFiles.size(); i++) {
+            request.append(i + 1).append(". ID ").append(contentFiles.get(i).getId()).append("\n");
+        }
+        request.append("Svar kun med en JSON-liste på formen [{\"id\": \"<ID>\", \"caption\": \"<tekst>\"}], ")
+                .append("med ett element per bilde.");
+
+        UserMessage userMessage = UserMessage.builder()
+                .media(contentFiles.stream().map(modelImageService::toMedia).toList())
+                .text(request.toString())
+                .build();
+
+        String response = chatModel.call(new SystemMessage(systemPrompt), userMessage);
+        return parseBatchCaptions(response, contentFiles);
+    }
+
+    private Map<String, String> parseBatchCaptions(String response, List<ContentFile> contentFiles) {
+        Map<String, String> captions = new HashMap<>();
+        int start = response != null ? response.indexOf('[') : -1;
+        int end = response != null ? response.lastIndexOf(']') : -1;
+        if (start < 0 || end < start) {
+            log.warn("Batch caption response for {} images was not a JSON list, generating one by one",
+                    contentFiles.size());
+            return captions;
+        }
+
+        try {
+            List<BatchCaption> batchCaptions = objectMapper.readValue(response.substring(start, end + 1),
+                    new TypeReference<>() {
+                    });
+            Set<String> requestedIds = contentFiles.stream().map(ContentFile::getId).collect(Collectors.toSet());
+            batchCaptions.stream()
+                    .filter(batchCaption -> requestedIds.contains(batchCaption.id()))
+                    .filter(batchCaption -> batchCaption.caption() != null && !batchCaption.caption().isBlank())
+                    .forEach(batchCaption -> captions.put(batchCaption.id(), batchCaption.caption()));
+        } catch (JsonProcessingException e) {
+            log.warn("Could not parse batch caption response for {} images, generating one by one: {}",
+                    contentFiles.size(), e.getMessage());
+        }
+        return captions;
     }
 
     public List<Post> getPosts(LocalDate fromDate, LocalDate toDate, PostStatus status) {
@@ -181,8 +234,18 @@ public class PostService {
     public Post updatePost(String id, String text, OffsetDateTime publishAt, PostStatus status) {
         Post post = getPostById(id);
 
-        if (text != null) {
+        if (post.getStatus() == PostStatus.PUBLISHING) {
+            throw new ConflictException("Post is currently being published");
+        }
+
+        if (status == PostStatus.PUBLISHING) {
+            throw new BadRequestException("Status PUBLISHING is set by the publisher");
+        }
+
+        if (text != null && !text.equals(post.getText())) {
             post.setText(text);
+            // The caption is part of the carousel container, so a staged one can not be reused
+            post.setInstagramCarouselContainerId(null);
         }
 
         if (publishAt != null) {
@@ -193,7 +256,17 @@ public class PostService {
             post.setStatus(status);
         }
 
-        return postRepository.save(post);
+        if (status == PostStatus.SCHEDULED) {
+            // (Re)scheduling starts a fresh set of publish attempts
+            post.setPublishAttempts(0);
+            post.setNextAttemptAt(null);
+            post.setLastPublishErrorCode(null);
+        }
+
+        Post savedPost = postRepository.save(post);
+        eventPublisher.publishEvent(new PostScheduleChangedEvent(
+                savedPost.getId(), savedPost.getStatus(), savedPost.getPublishAt()));
+        return savedPost;
     }
 
     public OffsetDateTime getSuggestedPublishDate() {
@@ -220,4 +293,10 @@ public class PostService {
         // Set time to noon
         return suggestedDate.withHour(12).withMinute(0).withSecond(0).withNano(0);
     }
+
+    public record GeneratedPost(ContentFile contentFile, String text) {
+    }
+
+    private record BatchCaption(String id, String caption) {
+    }
 }
@@ -0,0 +1,116 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.model.PlatformType;
+import com.somesimplify.model.PostStatus;
+import com.somesimplify.somesimplify.config.PublishingConfig;
+import com.somesimplify.somesimplify.repository.PostRepository;
+import com.somesimplify.somesimplify.repository.PostRepository.DuePost;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The post table doubles as a durable publish queue shared by all backend nodes. A node claims
+ * due posts by moving them from SCHEDULED to PUBLISHING under a time-limited lease, and releases
+ * them with a conditional update once it is done. If a node dies, its lease expires and another
+ * node claims the post again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PublishQueueService {
+
+    private final PostRepository postRepository;
+    private final PublishingConfig publishingConfig;
+
+    @Getter
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName()
+            + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * Claim up to {@code limit} due posts across all tenants for this node.
+     */
+    @Transactional
+    public List<DuePost> claimDuePosts(int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+
+        OffsetDateTime now = OffsetDateTime.now();
+        List<DuePost> duePosts = postRepository.lockDuePostsAcrossTenants(
+                PlatformType.INSTAGRAM.name(),
+                now,
+                limit
+        );
+
+        if (!duePosts.isEmpty()) {
+            postRepository.leaseForPublishing(
+                    duePosts.stream().map(DuePost::getPostId).toList(),
+                    nodeId,
+                    now.plus(publishingConfig.getLeaseDuration())
+            );
+            log.debug("Node {} claimed {} posts for publishing", nodeId, duePosts.size());
+        }
+
+        return duePosts;
+    }
+
+    /**
+     * Claim up to {@code limit} scheduled posts that are due within the staging look-ahead and
+     * have no carousel container yet.
+     */
+    @Transactional
+    public List<DuePost> claimPostsForStaging(int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+
+        OffsetDateTime now = OffsetDateTime.now();
+        PublishingConfig.Staging staging = publishingConfig.getStaging();
+        List<DuePost> posts = postRepository.lockPostsForStagingAcrossTenants(
+                PlatformType.INSTAGRAM.name(),
+                now,
+                now.plus(staging.getLookAhead()),
+                limit
+        );
+
+        if (!posts.isEmpty()) {
+            postRepository.leaseForStaging(
+                    posts.stream().map(DuePost::getPostId).toList(),
+                    nodeId,
+                    now.plus(staging.getLeaseDuration())
+            );
+            log.debug("Node {} claimed {} posts for staging", nodeId, posts.size());
+        }
+
+        return posts;
+    }
+
+    @Transactional
+    public void releaseStaging(String postId) {
+        postRepository.releaseStagingLease(postId, nodeId);
+    }
+
+    /**
+     * Move a claimed post to {@code status} and record the outcome of the attempt. Returns false
+     * if this node no longer holds the lease.
+     */
+    @Transactional
+    public boolean release(String postId, PostStatus status, int publishAttempts,
+                           OffsetDateTime nextAttemptAt, String errorCode) {
+        boolean released = postRepository.releaseLease(
+                postId, nodeId, status, publishAttempts, nextAttemptAt, errorCode) == 1;
+        if (!released) {
+            log.warn("Node {} lost the publishing lease on post {} before setting it to {}",
+                    nodeId, postId, status);
+        }
+        return released;
+    }
+}
@@ -0,0 +1,75 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.PublishingConfig;
+import com.somesimplify.somesimplify.exception.InstagramPublishException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed publish is retried and when, based on the HTTP status and Graph API
+ * error code of the failed call.
+ */
+@Component
+@RequiredArgsConstructor
+public class PublishRetryPolicy {
+
+    // https://developers.facebook.com/docs/graph-api/guides/error-handling
+    private static final Set<Integer> TRANSIENT_GRAPH_CODES = Set.of(1, 2, 9007);
+    private static final Set<Integer> RATE_LIMIT_GRAPH_CODES = Set.of(4, 9, 17, 32, 613, 80002);
+
+    private final PublishingConfig publishingConfig;
+
+    public boolean isRetryable(InstagramPublishException e) {
+        if (e.isTransientError() || isRateLimited(e)) {
+            return true;
+        }
+
+        Integer graphErrorCode = e.getGraphErrorCode();
+        if (graphErrorCode != null) {
+            return TRANSIENT_GRAPH_CODES.contains(graphErrorCode);
+        }
+
+        Integer httpStatus = e.getHttpStatus();
+        return httpStatus != null && httpStatus >= 500;
+    }
+
+    public boolean isRateLimited(InstagramPublishException e) {
+        return isRateLimitedGraphCode(e.getGraphErrorCode()) || Integer.valueOf(429).equals(e.getHttpStatus());
+    }
+
+    /**
+     * Whether the Graph API error code means a rate limit was reached, for every kind of Graph API call
+     */
+    public static boolean isRateLimitedGraphCode(Integer graphErrorCode) {
+        return graphErrorCode != null && RATE_LIMIT_GRAPH_CODES.contains(graphErrorCode);
+    }
+
+    public boolean hasAttemptsLeft(int attempts) {
+        return attempts < publishingConfig.getRetry().getMaxAttempts();
+    }
+
+    /**
+     * Exponential backoff with jitter: the delay doubles per attempt up to the max delay, and a
+     * random point in the upper half of it is picked so posts that failed together spread out.
+     * Rate limited calls never wait less than the rate limit delay.
+     */
+    public OffsetDateTime nextAttemptAt(int attempts, boolean rateLimited) {
+        PublishingConfig.Retry retry = publishingConfig.getRetry();
+
+        long baseMillis = retry.getBaseDelay().toMillis();
+        long maxMillis = retry.getMaxDelay().toMillis();
+        long delayMillis = Math.min(maxMillis, baseMillis << Math.min(attempts - 1, 30));
+
+        if (rateLimited) {
+            delayMillis = Math.max(delayMillis, retry.getRateLimitDelay().toMillis());
+        }
+
+        long jitteredMillis = delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+        return OffsetDateTime.now().plus(Duration.ofMillis(jitteredMillis));
+    }
+}
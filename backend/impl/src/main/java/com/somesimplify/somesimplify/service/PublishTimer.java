@@ -0,0 +1,143 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.model.PlatformType;
+import com.somesimplify.model.PostStatus;
+import com.somesimplify.somesimplify.config.PublishingConfig;
+import com.somesimplify.somesimplify.event.PostScheduleChangedEvent;
+import com.somesimplify.somesimplify.repository.PostRepository;
+import com.somesimplify.somesimplify.repository.PostRepository.UpcomingPost;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires the publisher at the moment a scheduled post becomes due, instead of polling for due
+ * posts every minute.
+ * <p>
+ * Posts due within the next {@code publishing.timer-window} are kept in a delay queue. The
+ * queue is filled from the database by {@link #resync()}, and kept up to date between resyncs by
+ * {@link PostScheduleChangedEvent}s. When an entry expires the publisher claims every due post,
+ * so the database stays the source of truth and entries never need to be exact.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PublishTimer {
+
+    private static final String CATCH_UP_KEY = "catch-up";
+
+    private final PostRepository postRepository;
+    private final PostPublishService postPublishService;
+    private final PublishingConfig publishingConfig;
+
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+    private final Map<String, Entry> entriesByPostId = new ConcurrentHashMap<>();
+    private Thread timerThread;
+
+    @PostConstruct
+    public void start() {
+        timerThread = Thread.ofPlatform().daemon().name("publish-timer").start(this::runLoop);
+    }
+
+    @PreDestroy
+    public void stop() {
+        timerThread.interrupt();
+    }
+
+    /**
+     * Reload the posts that are due within the timer window from the database.
+     */
+    public void resync() {
+        OffsetDateTime horizon = OffsetDateTime.now().plus(publishingConfig.getTimerWindow());
+        List<UpcomingPost> upcomingPosts = postRepository.findUpcomingPostsAcrossTenants(
+                PlatformType.INSTAGRAM.name(),
+                horizon
+        );
+
+        upcomingPosts.forEach(post -> schedule(post.getPostId(), post.getDueAtEpochMilli()));
+        log.debug("Publish timer resynced, {} posts due before {}", upcomingPosts.size(), horizon);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onPostScheduleChanged(PostScheduleChangedEvent event) {
+        OffsetDateTime horizon = OffsetDateTime.now().plus(publishingConfig.getTimerWindow());
+
+        if (event.status() == PostStatus.SCHEDULED && event.dueAt() != null && !event.dueAt().isAfter(horizon)) {
+            schedule(event.postId(), event.dueAt().toInstant().toEpochMilli());
+        } else {
+            unschedule(event.postId());
+        }
+    }
+
+    private synchronized void schedule(String key, long dueAtEpochMilli) {
+        Entry existing = entriesByPostId.get(key);
+        if (existing != null) {
+            if (existing.dueAtEpochMilli() == dueAtEpochMilli) {
+                return;
+            }
+            queue.remove(existing);
+        }
+
+        Entry entry = new Entry(key, dueAtEpochMilli);
+        entriesByPostId.put(key, entry);
+        queue.put(entry);
+    }
+
+    private synchronized void unschedule(String key) {
+        Entry existing = entriesByPostId.remove(key);
+        if (existing != null) {
+            queue.remove(existing);
+        }
+    }
+
+    private void runLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Entry entry = queue.take();
+                entriesByPostId.remove(entry.key(), entry);
+
+                // Posts due in the same instant are claimed together
+                Entry next;
+                while ((next = queue.poll()) != null) {
+                    entriesByPostId.remove(next.key(), next);
+                }
+
+                int claimed = postPublishService.publishDuePosts();
+                if (claimed > 0 && claimed >= postPublishService.getClaimLimit()) {
+                    // More posts may be due than the executor could take, come back for them shortly
+                    schedule(CATCH_UP_KEY, Instant.now().plus(publishingConfig.getCatchUpDelay()).toEpochMilli());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Publish timer failed to publish due posts: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private record Entry(String key, long dueAtEpochMilli) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtEpochMilli - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtEpochMilli, ((Entry) other).dueAtEpochMilli);
+        }
+    }
+}
@@ -4,8 +4,10 @@ import com.somesimplify.somesimplify.config.AwsConfig;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
@@ -13,10 +15,17 @@ import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Iterator;
 import java.util.UUID;
 
 @Slf4j
@@ -30,34 +39,100 @@ public class S3Service {
 
     private static final int THUMBNAIL_WIDTH = 400;
     private static final int THUMBNAIL_HEIGHT = 400;
+    private static final int MODEL_IMAGE_SIZE = 768;
 
     /**
-     * Upload a file to S3 and return the S3 key
+     * Upload a file on disk to S3 under the folder of its owner and return the S3 key. The file
+     * is streamed, so it is never held in memory as a whole.
      */
-    public String uploadFile(MultipartFile file, String userId) throws IOException {
-        String s3Key = generateS3Key(userId, file.getOriginalFilename());
+    public String uploadFile(Path file, String fileName, String contentType, String ownerId) {
+        String s3Key = generateS3Key(ownerId, fileName);
 
         PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                 .bucket(awsConfig.getS3Bucket())
                 .key(s3Key)
-                .contentType(file.getContentType())
+                .contentType(contentType)
                 .build();
 
-        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(file.getBytes()));
+        s3Client.putObject(putObjectRequest, RequestBody.fromFile(file));
 
         log.info("Uploaded file to S3: {}", s3Key);
         return s3Key;
     }
 
     /**
-     * Generate and upload a thumbnail for the image
+     * Upload file content to S3 under the folder of its owner and return the S3 key
      */
-    public String uploadThumbnail(MultipartFile file, String userId) throws IOException {
-        String thumbnailS3Key = generateThumbnailS3Key(userId, file.getOriginalFilename());
+    public String uploadFile(byte[] content, String fileName, String contentType, String ownerId) {
+        String s3Key = generateS3Key(ownerId, fileName);
+
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(awsConfig.getS3Bucket())
+                .key(s3Key)
+                .contentType(contentType)
+                .build();
+
+        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(content));
+
+        log.info("Uploaded file to S3: {}", s3Key);
+        return s3Key;
+    }
+
+    /**
+     * Decode an image scaled down to fit the model image size. The thumbnail and the model image
+     * are both made from it, so the original is only decoded once. Large images are decoded with
+     * source subsampling, so the full size raster is never held in memory; they are still read at
+     * twice the model image size or more before the final scaling, which keeps the quality.
+     */
+    public BufferedImage readScaledImage(Path image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + image.getFileName());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longestSide / (MODEL_IMAGE_SIZE * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                // Only JPEG carries the EXIF orientation that Thumbnailator would otherwise apply
+                Orientation orientation = "jpeg".equalsIgnoreCase(reader.getFormatName())
+                        ? ExifUtils.getExifOrientation(reader, 0)
+                        : null;
+                BufferedImage decoded = reader.read(0, param);
+
+                Thumbnails.Builder<BufferedImage> builder = Thumbnails.of(decoded)
+                        .size(MODEL_IMAGE_SIZE, MODEL_IMAGE_SIZE);
+                if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                    builder.addFilter(ExifFilterUtils.getFilterForOrientation(orientation));
+                }
+                return builder.asBufferedImage();
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    public BufferedImage readScaledImage(byte[] image) throws IOException {
+        return Thumbnails.of(new ByteArrayInputStream(image))
+                .size(MODEL_IMAGE_SIZE, MODEL_IMAGE_SIZE)
+                .asBufferedImage();
+    }
+
+    /**
+     * Generate and upload a thumbnail from a decoded image
+     */
+    public String uploadThumbnail(BufferedImage image, String fileName, String ownerId) throws IOException {
+        String thumbnailS3Key = generateThumbnailS3Key(ownerId, fileName);
 
         // Generate thumbnail
         ByteArrayOutputStream thumbnailOutputStream = new ByteArrayOutputStream();
-        Thumbnails.of(new ByteArrayInputStream(file.getBytes()))
+        Thumbnails.of(image)
                 .size(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)
                 .outputFormat("jpg")
                 .outputQuality(0.8)
@@ -78,6 +153,50 @@ public class S3Service {
         return thumbnailS3Key;
     }
 
+    /**
+     * Scale an image down to fit within the size the language model works with, as JPEG
+     */
+    public byte[] createModelImage(byte[] image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Thumbnails.of(new ByteArrayInputStream(image))
+                .size(MODEL_IMAGE_SIZE, MODEL_IMAGE_SIZE)
+                .outputFormat("jpg")
+                .outputQuality(0.85)
+                .toOutputStream(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Encode an image that was decoded with {@link #readScaledImage} as the model image JPEG
+     */
+    public byte[] createModelImage(BufferedImage scaledImage) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Thumbnails.of(scaledImage)
+                .scale(1)
+                .outputFormat("jpg")
+                .outputQuality(0.85)
+                .toOutputStream(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Upload the model sized rendition of an image next to the original and return its S3 key
+     */
+    public String uploadModelImage(byte[] modelImage, String originalS3Key) {
+        String modelImageS3Key = generateModelImageS3Key(originalS3Key);
+
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(awsConfig.getS3Bucket())
+                .key(modelImageS3Key)
+                .contentType("image/jpeg")
+                .build();
+
+        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(modelImage));
+
+        log.info("Uploaded model image to S3: {}", modelImageS3Key);
+        return modelImageS3Key;
+    }
+
     /**
      * Generate a pre-signed URL for accessing an image (valid for 1 hour)
      */
@@ -115,6 +234,18 @@ public class S3Service {
         return presignedRequest.url().toString();
     }
 
+    /**
+     * Download the content of a file from S3
+     */
+    public byte[] downloadFile(String s3Key) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(awsConfig.getS3Bucket())
+                .key(s3Key)
+                .build();
+
+        return s3Client.getObjectAsBytes(getObjectRequest).asByteArray();
+    }
+
     /**
      * Delete a file from S3
      */
@@ -144,4 +275,12 @@ public class S3Service {
         String nameWithoutExtension = sanitizedFilename.substring(0, sanitizedFilename.lastIndexOf('.'));
         return String.format("%s/thumbnails/%s-%s.jpg", userId, UUID.randomUUID(), nameWithoutExtension);
     }
+
+    /**
+     * Generate unique S3 key for a model image, in the folder of the original: folder/model/uuid.jpg
+     */
+    private String generateModelImageS3Key(String originalS3Key) {
+        String folder = originalS3Key.substring(0, Math.max(originalS3Key.lastIndexOf('/'), 0));
+        return String.format("%s/model/%s.jpg", folder, UUID.randomUUID());
+    }
 }
@@ -23,6 +23,7 @@ public class TenantProfileService {
     private final TenantProfileMapper profileMapper;
     private final TenantService tenantService;
     private final SocialMediaConnectionRepository socialMediaConnectionRepository;
+    private final CaptionPromptService captionPromptService;
 
     public TenantProfile getTenantProfile() {
         String tenantId = TenantContext.getTenantId();
@@ -43,7 +44,9 @@ public class TenantProfileService {
             });
 
         profile = profileMapper.updateFromTO(profileTO, profile);
-        return profileRepository.save(profile);
+        profile = profileRepository.save(profile);
+        captionPromptService.evict(tenantId);
+        return profile;
     }
 
     public OnboardingStatusTO getOnboardingStatus() {
@@ -0,0 +1,180 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.TokenUsageConfig;
+import com.somesimplify.somesimplify.exception.TokenBudgetExceededException;
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import com.somesimplify.somesimplify.repository.TenantTokenUsageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the chat model tokens each tenant uses per day and enforces the daily budgets. Usage is
+ * added to in-memory counters on the calling thread and written to the database by
+ * {@link #flush()}, one upsert per tenant and day. A tenant's usage is the last total read from
+ * the database plus what this node has not flushed yet.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TokenUsageService {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Oslo");
+
+    private final TenantTokenUsageRepository tenantTokenUsageRepository;
+    private final TenantRepository tenantRepository;
+    private final TokenUsageConfig tokenUsageConfig;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<UsageKey, PendingUsage> pendingUsage = new ConcurrentHashMap<>();
+    private final Map<UsageKey, Long> flushedTotals = new ConcurrentHashMap<>();
+    // Daily budget per tenant, 0 for no limit. Cleared on every flush so changes are picked up.
+    private final Map<String, Long> budgets = new ConcurrentHashMap<>();
+
+    public void record(String tenantId, Usage usage, long latencyNanos) {
+        long promptTokens = usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+        long completionTokens = usage != null && usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0;
+        meterRegistry.counter("ai.tokens", "type", "prompt").increment(promptTokens);
+        meterRegistry.counter("ai.tokens", "type", "completion").increment(completionTokens);
+
+        if (tenantId == null) {
+            return;
+        }
+
+        // Added inside compute so flush cannot take the counters away while they are being updated
+        pendingUsage.compute(new UsageKey(tenantId, today()), (key, pending) -> {
+            PendingUsage usageToAdd = pending != null ? pending : new PendingUsage();
+            usageToAdd.add(promptTokens, completionTokens, 1, latencyNanos);
+            return usageToAdd;
+        });
+    }
+
+    /**
+     * Whether the tenant may make another chat model call today. Calls without a tenant are not
+     * limited.
+     */
+    public boolean hasBudgetLeft(String tenantId) {
+        if (tenantId == null) {
+            return true;
+        }
+
+        long budget = getBudget(tenantId);
+        return budget <= 0 || getUsedTokens(tenantId) < budget;
+    }
+
+    public void checkBudget(String tenantId) {
+        if (!hasBudgetLeft(tenantId)) {
+            meterRegistry.counter("ai.token_budget.rejections").increment();
+            ZonedDateTime now = ZonedDateTime.now(ZONE);
+            Duration untilTomorrow = Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay(ZONE));
+            throw new TokenBudgetExceededException("Tenant " + tenantId + " has used its daily budget of "
+                    + getBudget(tenantId) + " tokens", untilTomorrow);
+        }
+    }
+
+    public long getUsedTokens(String tenantId) {
+        UsageKey key = new UsageKey(tenantId, today());
+        Long flushed = flushedTotals.get(key);
+        if (flushed == null) {
+            flushed = tenantTokenUsageRepository.findTotalTokens(tenantId, key.usageDate());
+            flushedTotals.putIfAbsent(key, flushed);
+        }
+
+        PendingUsage pending = pendingUsage.get(key);
+        return pending != null ? flushed + pending.totalTokens() : flushed;
+    }
+
+    /**
+     * Write the usage recorded since the last flush. The counters of each tenant are taken out of
+     * the map before they are read, so usage recorded during the flush goes into new counters.
+     * Usage that could not be written is put back for the next flush.
+     */
+    public void flush() {
+        Set<UsageKey> refreshed = new HashSet<>();
+
+        for (UsageKey key : new ArrayList<>(pendingUsage.keySet())) {
+            PendingUsage pending = pendingUsage.remove(key);
+            if (pending == null) {
+                continue;
+            }
+
+            try {
+                long total = tenantTokenUsageRepository.addUsage(key.tenantId(), key.usageDate(),
+                        pending.promptTokens.sum(), pending.completionTokens.sum(), pending.calls.sum(),
+                        Duration.ofNanos(pending.latencyNanos.sum()).toMillis(), OffsetDateTime.now());
+                flushedTotals.put(key, total);
+                refreshed.add(key);
+            } catch (Exception e) {
+                log.warn("Could not save token usage for tenant {}, keeping it for the next flush: {}",
+                        key.tenantId(), e.getMessage());
+                pendingUsage.merge(key, pending, PendingUsage::addAll);
+            }
+        }
+
+        // Totals this node did not just write are read again when needed, to see other nodes' usage
+        flushedTotals.keySet().retainAll(refreshed);
+        budgets.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private long getBudget(String tenantId) {
+        Long budget = budgets.get(tenantId);
+        if (budget == null) {
+            budget = tenantRepository.findById(tenantId)
+                    .map(Tenant::getDailyTokenBudget)
+                    .orElse(tokenUsageConfig.getDefaultDailyBudget());
+            budgets.put(tenantId, budget);
+        }
+        return budget;
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now(ZONE);
+    }
+
+    private record UsageKey(String tenantId, LocalDate usageDate) {
+    }
+
+    private static class PendingUsage {
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private void add(long prompt, long completion, long callCount, long latency) {
+            promptTokens.add(prompt);
+            completionTokens.add(completion);
+            calls.add(callCount);
+            latencyNanos.add(latency);
+        }
+
+        private PendingUsage addAll(PendingUsage other) {
+            add(other.promptTokens.sum(), other.completionTokens.sum(), other.calls.sum(), other.latencyNanos.sum());
+            return this;
+        }
+
+        private long totalTokens() {
+            return promptTokens.sum() + completionTokens.sum();
+        }
+    }
+}
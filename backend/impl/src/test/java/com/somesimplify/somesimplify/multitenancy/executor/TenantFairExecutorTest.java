@@ -0,0 +1,223 @@
+package com.somesimplify.somesimplify.multitenancy.executor;
+
+import com.somesimplify.somesimplify.multitenancy.util.TenantContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the executor on a {@link ManualWorkers} pool, so each test decides when a started task
+ * runs and the dispatch order is deterministic.
+ */
+class TenantFairExecutorTest {
+
+    private final ManualWorkers workers = new ManualWorkers();
+    private final List<String> ran = new ArrayList<>();
+
+    @Test
+    void dispatchesRoundRobinBetweenTenants() {
+        TenantFairExecutor executor = executor(1, 1, 100);
+
+        submit(executor, "a", "a1");
+        submit(executor, "a", "a2");
+        submit(executor, "a", "a3");
+        submit(executor, "b", "b1");
+        submit(executor, "b", "b2");
+        workers.runAll();
+
+        assertThat(ran).containsExactly("a1", "a2", "b1", "a3", "b2");
+    }
+
+    @Test
+    void tenantAtItsLimitDoesNotHoldBackOtherTenants() {
+        TenantFairExecutor executor = executor(4, 2, 100);
+
+        submit(executor, "a", "a1");
+        submit(executor, "a", "a2");
+        submit(executor, "a", "a3");
+        submit(executor, "b", "b1");
+
+        assertThat(workers.started()).isEqualTo(3);
+        assertThat(executor.getInFlightCount()).isEqualTo(3);
+        assertThat(executor.getQueuedCount()).isEqualTo(1);
+
+        workers.runNext();
+
+        assertThat(ran).containsExactly("a1");
+        assertThat(executor.getInFlightCount()).isEqualTo(3);
+        assertThat(executor.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void neverRunsMoreThanTheGlobalLimit() {
+        TenantFairExecutor executor = executor(2, 2, 100);
+
+        submit(executor, "a", "a1");
+        submit(executor, "a", "a2");
+        submit(executor, "b", "b1");
+        submit(executor, "c", "c1");
+
+        assertThat(workers.started()).isEqualTo(2);
+        assertThat(executor.getQueuedCount()).isEqualTo(2);
+
+        workers.runAll();
+
+        assertThat(ran).containsExactly("a1", "a2", "b1", "c1");
+        assertThat(executor.getInFlightCount()).isZero();
+        assertThat(executor.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void sameKeyIsOnlyQueuedOnceUntilItCompletes() {
+        TenantFairExecutor executor = executor(1, 1, 100);
+
+        CompletableFuture<Void> first = submit(executor, "a", "post-1");
+        CompletableFuture<Void> duplicate = submit(executor, "a", "post-1");
+
+        assertThat(duplicate).isSameAs(first);
+        workers.runAll();
+        assertThat(ran).containsExactly("post-1");
+        assertThat(first).isCompleted();
+
+        CompletableFuture<Void> again = submit(executor, "a", "post-1");
+        assertThat(again).isNotSameAs(first);
+        workers.runAll();
+        assertThat(ran).containsExactly("post-1", "post-1");
+    }
+
+    @Test
+    void rejectsTasksOverTheQueueLimit() {
+        TenantFairExecutor executor = executor(1, 1, 1);
+
+        submit(executor, "a", "a1");
+        submit(executor, "a", "a2");
+        CompletableFuture<Void> rejected = submit(executor, "b", "b1");
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThat(rejected.exceptionNow()).isInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.getRemainingCapacity()).isZero();
+
+        workers.runAll();
+
+        assertThat(ran).containsExactly("a1", "a2");
+        assertThat(executor.getRemainingCapacity()).isEqualTo(1);
+    }
+
+    @Test
+    void runsWithTheTenantContextOfTheOwningTenant() {
+        TenantFairExecutor executor = executor(2, 1, 100);
+        List<String> tenants = new ArrayList<>();
+
+        executor.submit("a", "a1", () -> tenants.add(TenantContext.getTenantId()));
+        executor.submit("b", "b1", () -> tenants.add(TenantContext.getTenantId()));
+        workers.runAll();
+
+        assertThat(tenants).containsExactly("a", "b");
+        assertThat(TenantContext.getTenantId()).isNull();
+    }
+
+    @Test
+    void failedTaskCompletesExceptionallyAndFreesItsSlot() {
+        TenantFairExecutor executor = executor(1, 1, 100);
+        IllegalStateException failure = new IllegalStateException("Task failed");
+
+        CompletableFuture<Void> failed = executor.submit("a", "a1", () -> {
+            throw failure;
+        });
+        submit(executor, "a", "a2");
+        workers.runAll();
+
+        assertThat(failed.exceptionNow()).isSameAs(failure);
+        assertThat(ran).containsExactly("a2");
+        assertThat(executor.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void taskRejectedByTheWorkersFailsAndFreesItsSlot() {
+        TenantFairExecutor executor = executor(1, 1, 100);
+        workers.shutdown();
+
+        CompletableFuture<Void> future = submit(executor, "a", "a1");
+
+        assertThat(future.exceptionNow()).isInstanceOf(RejectedExecutionException.class);
+        assertThat(executor.getInFlightCount()).isZero();
+        assertThat(executor.getQueuedCount()).isZero();
+    }
+
+    private TenantFairExecutor executor(int maxConcurrency, int maxConcurrencyPerTenant, int maxQueued) {
+        return new TenantFairExecutor("test", workers, maxConcurrency, maxConcurrencyPerTenant, maxQueued,
+                new SimpleMeterRegistry());
+    }
+
+    private CompletableFuture<Void> submit(TenantFairExecutor executor, String tenantId, String key) {
+        return executor.submit(tenantId, key, () -> ran.add(key));
+    }
+
+    /**
+     * Worker pool that only collects started tasks. They run on the test thread when the test
+     * calls {@link #runNext()} or {@link #runAll()}.
+     */
+    private static class ManualWorkers extends AbstractExecutorService {
+
+        private final Deque<Runnable> started = new ArrayDeque<>();
+        private boolean shutdown;
+
+        int started() {
+            return started.size();
+        }
+
+        void runNext() {
+            started.pollFirst().run();
+        }
+
+        void runAll() {
+            while (!started.isEmpty()) {
+                runNext();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Workers are shut down");
+            }
+            started.addLast(command);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<>(started);
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && started.isEmpty();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.somesimplify.somesimplify.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AimdConcurrencyLimitTest {
+
+    private static final Duration LATENCY_THRESHOLD = Duration.ofSeconds(1);
+    private static final long FAST = Duration.ofMillis(100).toNanos();
+    private static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+    @Test
+    void fastCallsRaiseTheLimitWhileItIsInUse() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 1, 10, 0.5, LATENCY_THRESHOLD);
+
+        acquire(limit, 2);
+        limit.onSuccess(FAST);
+
+        assertThat(limit.getLimit()).isCloseTo(2.5, within(0.001));
+        assertThat(limit.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void fastCallsDoNotRaiseAnUnusedLimit() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(4, 1, 10, 0.5, LATENCY_THRESHOLD);
+
+        acquire(limit, 1);
+        limit.onSuccess(FAST);
+
+        assertThat(limit.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void neverRaisesTheLimitAboveTheMax() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 1, 2, 0.5, LATENCY_THRESHOLD);
+
+        acquire(limit, 2);
+        limit.onSuccess(FAST);
+
+        assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void slowCallsLowerTheLimit() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(8, 1, 10, 0.5, LATENCY_THRESHOLD);
+
+        acquire(limit, 1);
+        limit.onSuccess(SLOW);
+
+        assertThat(limit.getLimit()).isEqualTo(4);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void droppedCallsLowerTheLimitDownToTheMin() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(8, 3, 10, 0.5, LATENCY_THRESHOLD);
+
+        acquire(limit, 2);
+        limit.onDropped();
+        limit.onDropped();
+
+        assertThat(limit.getLimit()).isEqualTo(3);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void ignoredCallsFreeTheirSlotWithoutChangingTheLimit() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 1, 10, 0.5, LATENCY_THRESHOLD);
+
+        acquire(limit, 2);
+        limit.onIgnored();
+
+        assertThat(limit.getLimit()).isEqualTo(2);
+        assertThat(limit.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void givesUpWhenNoSlotIsFreedInTime() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 1, 10, 0.5, LATENCY_THRESHOLD);
+        acquire(limit, 1);
+
+        assertThat(limit.tryAcquire(Duration.ofMillis(20))).isFalse();
+        assertThat(limit.tryAcquire(Duration.ZERO)).isFalse();
+        assertThat(limit.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void waitingCallGetsTheSlotWhenItIsFreed() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 1, 10, 0.5, LATENCY_THRESHOLD);
+        acquire(limit, 1);
+
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit.tryAcquire(Duration.ofSeconds(5));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        limit.onSuccess(FAST);
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(limit.getInFlight()).isEqualTo(1);
+    }
+
+    private void acquire(AimdConcurrencyLimit limit, int calls) throws InterruptedException {
+        for (int i = 0; i < calls; i++) {
+            assertThat(limit.tryAcquire(Duration.ZERO)).isTrue();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.somesimplify.somesimplify.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static com.somesimplify.somesimplify.resilience.CircuitBreaker.REJECTED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void staysClosedUntilTheMinimumNumberOfCalls() {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+
+        fail(breaker, 3);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opensWhenTheFailureRateReachesTheThreshold() {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+
+        succeed(breaker, 2);
+        fail(breaker, 2);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(REJECTED);
+    }
+
+    @Test
+    void onlyCountsTheLastCallsOfTheWindow() {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+
+        fail(breaker, 1);
+        succeed(breaker, 4);
+        fail(breaker, 2);
+
+        // The first failure has left the window of 4, so it is 2 failures in 4 calls
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        breaker = breaker(Duration.ofMinutes(1));
+        fail(breaker, 1);
+        succeed(breaker, 4);
+        fail(breaker, 1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void letsTrialCallsThroughAfterTheOpenDurationAndClosesWhenTheySucceed() {
+        CircuitBreaker breaker = breaker(Duration.ZERO);
+        fail(breaker, 4);
+
+        long first = breaker.tryAcquire();
+        long second = breaker.tryAcquire();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(first).isNotEqualTo(REJECTED).isEqualTo(second);
+        assertThat(breaker.tryAcquire()).isEqualTo(REJECTED);
+
+        breaker.onSuccess(first);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(REJECTED);
+
+        breaker.onSuccess(second);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failedTrialCallOpensTheBreakerAgain() {
+        CircuitBreaker breaker = breaker(Duration.ZERO);
+        fail(breaker, 4);
+
+        breaker.onFailure(breaker.tryAcquire());
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void ignoredTrialCallFreesItsSlot() {
+        CircuitBreaker breaker = breaker(Duration.ZERO);
+        fail(breaker, 4);
+
+        long first = breaker.tryAcquire();
+        breaker.tryAcquire();
+        breaker.onIgnored(first);
+
+        assertThat(breaker.tryAcquire()).isNotEqualTo(REJECTED);
+        assertThat(breaker.tryAcquire()).isEqualTo(REJECTED);
+    }
+
+    @Test
+    void ignoresOutcomesOfCallsFromAnEarlierGeneration() {
+        CircuitBreaker breaker = breaker(Duration.ZERO);
+        long startedWhileClosed = breaker.tryAcquire();
+        fail(breaker, 4);
+
+        long trial = breaker.tryAcquire();
+        breaker.onSuccess(startedWhileClosed);
+        breaker.onSuccess(startedWhileClosed);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        // A stale outcome must not free a trial slot either
+        breaker.onIgnored(startedWhileClosed);
+        breaker.tryAcquire();
+        assertThat(breaker.tryAcquire()).isEqualTo(REJECTED);
+
+        breaker.onFailure(startedWhileClosed);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        breaker.onFailure(trial);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void closingStartsWithAnEmptyWindow() {
+        CircuitBreaker breaker = breaker(Duration.ZERO);
+        fail(breaker, 4);
+        breaker.onSuccess(breaker.tryAcquire());
+        breaker.onSuccess(breaker.tryAcquire());
+
+        fail(breaker, 3);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    /**
+     * Window of 4 calls, opens at a failure rate of 50%, and closes after 2 successful trial calls
+     */
+    private CircuitBreaker breaker(Duration openDuration) {
+        return new CircuitBreaker("test", 4, 4, 0.5, openDuration, 2);
+    }
+
+    private void succeed(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) {
+            breaker.onSuccess(breaker.tryAcquire());
+        }
+    }
+
+    private void fail(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+    }
+}
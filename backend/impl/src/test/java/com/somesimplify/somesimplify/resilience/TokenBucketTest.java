@@ -0,0 +1,108 @@
+package com.somesimplify.somesimplify.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+
+    private static final long ONE_SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void startsFull() {
+        TokenBucket bucket = new TokenBucket(5, 1);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.tryAcquire(1)).isZero();
+        }
+        assertThat(bucket.tryAcquire(1)).isPositive();
+    }
+
+    @Test
+    void tellsHowLongUntilEnoughTokensAreRefilled() {
+        TokenBucket bucket = new TokenBucket(2, 1);
+        bucket.tryAcquire(2);
+
+        assertThat(bucket.tryAcquire(1)).isBetween(ONE_SECOND * 9 / 10, ONE_SECOND);
+        assertThat(bucket.tryAcquire(2)).isBetween(ONE_SECOND * 19 / 10, ONE_SECOND * 2);
+    }
+
+    @Test
+    void failedAcquireDoesNotTakeTokens() {
+        TokenBucket bucket = new TokenBucket(2, 0.001);
+        bucket.tryAcquire(1);
+
+        assertThat(bucket.tryAcquire(2)).isPositive();
+        assertThat(bucket.tryAcquire(1)).isZero();
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        bucket.tryAcquire(1);
+
+        Thread.sleep(50);
+
+        assertThat(bucket.tryAcquire(1)).isZero();
+    }
+
+    @Test
+    void neverRefillsAboveTheCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(2, 1000);
+
+        Thread.sleep(20);
+
+        assertThat(bucket.getAvailableTokens()).isEqualTo(2);
+    }
+
+    @Test
+    void changedRefillRateAppliesToTheNextWait() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        bucket.tryAcquire(1);
+
+        bucket.setRefillPerSecond(0.5);
+
+        assertThat(bucket.tryAcquire(1)).isBetween(ONE_SECOND * 19 / 10, ONE_SECOND * 2);
+    }
+
+    @Test
+    void concurrentCallersNeverTakeMoreThanTheCapacity() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 0.001);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int acquired = 0;
+                    for (int j = 0; j < 50; j++) {
+                        if (bucket.tryAcquire(1) == 0) {
+                            acquired++;
+                        }
+                    }
+                    return acquired;
+                }));
+            }
+            start.countDown();
+
+            int acquired = 0;
+            for (Future<Integer> result : results) {
+                acquired += result.get();
+            }
+            assertThat(acquired).isEqualTo(100);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
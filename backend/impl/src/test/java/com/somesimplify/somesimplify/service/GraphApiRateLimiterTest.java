@@ -0,0 +1,142 @@
+package com.somesimplify.somesimplify.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.somesimplify.somesimplify.exception.InstagramRateLimitedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GraphApiRateLimiterTest {
+
+    private static final String ACCOUNT_ID = "ig-account";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GraphApiRateLimiter rateLimiter = new GraphApiRateLimiter(meterRegistry, new ObjectMapper());
+
+    @Test
+    void rejectsCallsOnceTheHourlyQuotaIsUsed() {
+        configure(3, 50, Duration.ofSeconds(1));
+
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquireCall(ACCOUNT_ID);
+        }
+
+        assertThat(retryAfterOfNextCall()).isBetween(Duration.ofMinutes(19), Duration.ofMinutes(20));
+        assertThat(meterRegistry.counter("graph.api.rate_limiter.rejections", "account", ACCOUNT_ID).count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void batchCallsTakeOneTokenPerCallUpToTheWholeQuota() {
+        configure(3, 50, Duration.ofSeconds(1));
+
+        rateLimiter.acquireCalls(ACCOUNT_ID, 10);
+
+        assertThatThrownBy(() -> rateLimiter.acquireCall(ACCOUNT_ID))
+                .isInstanceOf(InstagramRateLimitedException.class);
+    }
+
+    @Test
+    void accountsHaveSeparateQuotas() {
+        configure(1, 50, Duration.ofSeconds(1));
+
+        rateLimiter.acquireCall(ACCOUNT_ID);
+
+        assertThatCode(() -> rateLimiter.acquireCall("other-account")).doesNotThrowAnyException();
+    }
+
+    @Test
+    void publishesHaveTheirOwnDailyQuota() {
+        configure(200, 2, Duration.ofSeconds(1));
+
+        rateLimiter.acquirePublish(ACCOUNT_ID);
+        rateLimiter.acquirePublish(ACCOUNT_ID);
+
+        assertThatThrownBy(() -> rateLimiter.acquirePublish(ACCOUNT_ID))
+                .isInstanceOfSatisfying(InstagramRateLimitedException.class,
+                        e -> assertThat(e.getRetryAfter()).isGreaterThan(Duration.ofHours(11)));
+        assertThatCode(() -> rateLimiter.acquireCall(ACCOUNT_ID)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void waitsForATokenWithinTheMaxWait() {
+        configure(36_000, 50, Duration.ofSeconds(1));
+        rateLimiter.acquireCalls(ACCOUNT_ID, 36_000);
+
+        long startedAt = System.nanoTime();
+        rateLimiter.acquireCall(ACCOUNT_ID);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - startedAt)).isGreaterThan(Duration.ofMillis(50));
+        assertThat(meterRegistry.counter("graph.api.rate_limiter.waits", "account", ACCOUNT_ID).count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void highUsageSlowsDownTheRefill() {
+        configure(3600, 50, Duration.ZERO);
+        rateLimiter.acquireCalls(ACCOUNT_ID, 3600);
+        assertThat(retryAfterOfNextCall()).isLessThanOrEqualTo(Duration.ofSeconds(1));
+
+        rateLimiter.recordUsage(ACCOUNT_ID, headers("X-App-Usage",
+                "{\"call_count\":75,\"total_cputime\":10,\"total_time\":20}"));
+        assertThat(retryAfterOfNextCall()).isBetween(Duration.ofMillis(1900), Duration.ofSeconds(2));
+
+        rateLimiter.recordUsage(ACCOUNT_ID, headers("X-App-Usage",
+                "{\"call_count\":10,\"total_cputime\":99,\"total_time\":20}"));
+        assertThat(retryAfterOfNextCall()).isBetween(Duration.ofMillis(9900), Duration.ofSeconds(10));
+
+        rateLimiter.recordUsage(ACCOUNT_ID, headers("X-App-Usage",
+                "{\"call_count\":10,\"total_cputime\":10,\"total_time\":10}"));
+        assertThat(retryAfterOfNextCall()).isLessThanOrEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void blocksCallsUntilMetaSaysAccessIsRegained() {
+        configure(200, 50, Duration.ofSeconds(1));
+
+        rateLimiter.recordUsage(ACCOUNT_ID, headers("X-Business-Use-Case-Usage", """
+                {"1234":[{"type":"INSTAGRAM","call_count":100,"total_cputime":30,"total_time":40,
+                          "estimated_time_to_regain_access":30}]}
+                """));
+
+        assertThat(retryAfterOfNextCall()).isBetween(Duration.ofMinutes(29), Duration.ofMinutes(30));
+    }
+
+    @Test
+    void ignoresMalformedUsageHeaders() {
+        configure(200, 50, Duration.ofSeconds(1));
+
+        rateLimiter.recordUsage(ACCOUNT_ID, headers("X-App-Usage", "not json"));
+        rateLimiter.recordUsage(ACCOUNT_ID, null);
+
+        assertThatCode(() -> rateLimiter.acquireCall(ACCOUNT_ID)).doesNotThrowAnyException();
+    }
+
+    private void configure(int callsPerHour, int publishesPerDay, Duration maxWait) {
+        ReflectionTestUtils.setField(rateLimiter, "callsPerHour", callsPerHour);
+        ReflectionTestUtils.setField(rateLimiter, "publishesPerDay", publishesPerDay);
+        ReflectionTestUtils.setField(rateLimiter, "maxWait", maxWait);
+    }
+
+    private Duration retryAfterOfNextCall() {
+        try {
+            rateLimiter.acquireCall(ACCOUNT_ID);
+        } catch (InstagramRateLimitedException e) {
+            return e.getRetryAfter();
+        }
+        throw new AssertionError("Expected the call to be rate limited");
+    }
+
+    private HttpHeaders headers(String name, String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(name, value);
+        return headers;
+    }
+}
@@ -0,0 +1,182 @@
+package com.somesimplify.somesimplify.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Graph API endpoints used to stage a carousel: batch requests, media
+ * container creation and multi-ID status lookups. Created containers report FINISHED unless a
+ * test sets another status, and single operations of a batch can be made to fail or time out by
+ * their image URL.
+ */
+class GraphApiStubServer implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final AtomicInteger nextContainerId = new AtomicInteger(1);
+
+    private final Map<String, String> statusCodes = new ConcurrentHashMap<>();
+    private final Map<String, Failure> batchFailures = new ConcurrentHashMap<>();
+
+    private final List<List<JsonNode>> batches = new CopyOnWriteArrayList<>();
+    private final List<List<String>> statusLookups = new CopyOnWriteArrayList<>();
+    private final List<String> carouselRequests = new CopyOnWriteArrayList<>();
+
+    private record Failure(int code, String body) {
+    }
+
+    GraphApiStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Answer the batch operation for this image with an error response
+     */
+    void failItem(String imageUrl, int code, int graphErrorCode, boolean isTransient) {
+        String body = String.format(
+                "{\"error\":{\"message\":\"Stub error\",\"type\":\"OAuthException\",\"code\":%d,\"is_transient\":%s}}",
+                graphErrorCode, isTransient);
+        batchFailures.put(imageUrl, new Failure(code, body));
+    }
+
+    /**
+     * Answer the batch operation for this image with null, as Meta does for operations it did not
+     * get to before the batch timed out
+     */
+    void timeOutItem(String imageUrl) {
+        batchFailures.put(imageUrl, new Failure(0, null));
+    }
+
+    void clearFailures() {
+        batchFailures.clear();
+    }
+
+    void setStatus(String containerId, String statusCode) {
+        statusCodes.put(containerId, statusCode);
+    }
+
+    List<List<JsonNode>> getBatches() {
+        return batches;
+    }
+
+    List<List<String>> getStatusLookups() {
+        return statusLookups;
+    }
+
+    List<String> getCarouselRequests() {
+        return carouselRequests;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            if ("GET".equals(exchange.getRequestMethod()) && "/".equals(path)) {
+                respond(exchange, 200, lookupStatuses(parseForm(exchange.getRequestURI().getRawQuery())));
+            } else if ("POST".equals(exchange.getRequestMethod()) && "/".equals(path)) {
+                respond(exchange, 200, executeBatch(parseForm(body)));
+            } else if ("POST".equals(exchange.getRequestMethod()) && path.endsWith("/media")) {
+                carouselRequests.add(body);
+                respond(exchange, 200, "{\"id\":\"" + createContainer("carousel-") + "\"}");
+            } else {
+                respond(exchange, 404, "{\"error\":{\"message\":\"Unknown path " + path + "\",\"code\":100}}");
+            }
+        }
+    }
+
+    private String executeBatch(Map<String, String> params) throws IOException {
+        JsonNode operations = objectMapper.readTree(params.get("batch"));
+        List<JsonNode> batch = new ArrayList<>();
+        operations.forEach(batch::add);
+        batches.add(batch);
+
+        ArrayNode responses = objectMapper.createArrayNode();
+        for (JsonNode operation : batch) {
+            Map<String, String> operationParams = parseForm(operation.path("body").asText(""));
+            Failure failure = batchFailures.get(operationParams.getOrDefault("image_url", ""));
+
+            if (failure != null && failure.body() == null) {
+                responses.addNull();
+                continue;
+            }
+
+            ObjectNode response = responses.addObject();
+            response.putArray("headers");
+            if (failure != null) {
+                response.put("code", failure.code());
+                response.put("body", failure.body());
+            } else {
+                response.put("code", 200);
+                response.put("body", "{\"id\":\"" + createContainer("container-") + "\"}");
+            }
+        }
+        return objectMapper.writeValueAsString(responses);
+    }
+
+    private String lookupStatuses(Map<String, String> params) throws IOException {
+        List<String> ids = Arrays.asList(params.get("ids").split(","));
+        statusLookups.add(ids);
+
+        ObjectNode response = objectMapper.createObjectNode();
+        for (String id : ids) {
+            response.putObject(id)
+                    .put("status_code", statusCodes.getOrDefault(id, "FINISHED"))
+                    .put("id", id);
+        }
+        return objectMapper.writeValueAsString(response);
+    }
+
+    private String createContainer(String prefix) {
+        return prefix + nextContainerId.getAndIncrement();
+    }
+
+    private Map<String, String> parseForm(String form) {
+        Map<String, String> params = new HashMap<>();
+        if (form == null || form.isEmpty()) {
+            return params;
+        }
+        for (String pair : form.split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
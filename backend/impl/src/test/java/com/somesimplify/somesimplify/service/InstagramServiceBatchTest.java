@@ -0,0 +1,224 @@
+package com.somesimplify.somesimplify.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.somesimplify.model.PlatformType;
+import com.somesimplify.somesimplify.dto.instagram.GraphBatchRequest;
+import com.somesimplify.somesimplify.dto.instagram.GraphBatchResponse;
+import com.somesimplify.somesimplify.exception.InstagramPublishException;
+import com.somesimplify.somesimplify.model.ContentFile;
+import com.somesimplify.somesimplify.model.Post;
+import com.somesimplify.somesimplify.model.SocialMediaConnection;
+import com.somesimplify.somesimplify.repository.PostRepository;
+import com.somesimplify.somesimplify.repository.SocialMediaConnectionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stages carousels against {@link GraphApiStubServer} to check how batch responses are mapped
+ * back to the post's content files, including failed and timed-out operations.
+ */
+class InstagramServiceBatchTest {
+
+    private static final String ACCOUNT_ID = "ig-account";
+    private static final String IMAGE_URL = "https://cdn.example.com/";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PostRepository postRepository = mock(PostRepository.class);
+    private final SocialMediaConnectionRepository connectionRepository = mock(SocialMediaConnectionRepository.class);
+    private final S3Service s3Service = mock(S3Service.class);
+
+    private GraphApiStubServer graphApi;
+    private GraphApiBatchClient batchClient;
+    private InstagramService instagramService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        graphApi = new GraphApiStubServer();
+
+        GraphApiRateLimiter rateLimiter = new GraphApiRateLimiter(new SimpleMeterRegistry(), objectMapper);
+        ReflectionTestUtils.setField(rateLimiter, "callsPerHour", 10_000);
+        ReflectionTestUtils.setField(rateLimiter, "publishesPerDay", 50);
+        ReflectionTestUtils.setField(rateLimiter, "maxWait", Duration.ofSeconds(1));
+
+        RestTemplate restTemplate = new RestTemplate();
+        batchClient = new GraphApiBatchClient(restTemplate, objectMapper, rateLimiter);
+        ReflectionTestUtils.setField(batchClient, "graphApiUrl", graphApi.getUrl());
+
+        instagramService = new InstagramService(restTemplate, s3Service, connectionRepository, postRepository,
+                rateLimiter, batchClient, objectMapper);
+        ReflectionTestUtils.setField(instagramService, "graphApiUrl", graphApi.getUrl());
+        ReflectionTestUtils.setField(instagramService, "containerPollInterval", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(instagramService, "containerReadyTimeout", Duration.ofSeconds(5));
+
+        SocialMediaConnection connection = new SocialMediaConnection();
+        connection.setPlatform(PlatformType.INSTAGRAM);
+        connection.setPlatformAccountId(ACCOUNT_ID);
+        connection.setAccessToken("token");
+        connection.setIsActive(true);
+        when(connectionRepository.findByPlatformAndIsActiveTrue(PlatformType.INSTAGRAM))
+                .thenReturn(Optional.of(connection));
+        when(s3Service.generateLongLivedPresignedUrl(anyString()))
+                .thenAnswer(invocation -> IMAGE_URL + invocation.getArgument(0));
+        when(postRepository.saveInstagramCarouselContainerId(anyString(), anyString(), anyString())).thenReturn(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        graphApi.close();
+    }
+
+    @Test
+    void stagesCarouselWithOneBatchAndOneStatusLookupPerStage() {
+        Post post = post("a", "b", "c");
+
+        instagramService.stageCarouselPost(post);
+
+        assertThat(graphApi.getBatches()).hasSize(1);
+        assertThat(graphApi.getBatches().get(0))
+                .extracting(operation -> operation.path("relative_url").asText())
+                .containsOnly(ACCOUNT_ID + "/media");
+        assertThat(post.getInstagramItemContainerIds()).containsExactlyInAnyOrderEntriesOf(Map.of(
+                "a", "container-1",
+                "b", "container-2",
+                "c", "container-3"
+        ));
+        assertThat(graphApi.getStatusLookups()).containsExactly(
+                List.of("container-1", "container-2", "container-3"),
+                List.of("carousel-4")
+        );
+        assertThat(graphApi.getCarouselRequests()).singleElement().asString()
+                .contains("container-1,container-2,container-3");
+        assertThat(post.getInstagramCarouselContainerId()).isEqualTo("carousel-4");
+        verify(postRepository).saveInstagramCarouselContainerId(post.getId(), "carousel-4", "Caption");
+    }
+
+    @Test
+    void checkpointsSucceededItemsWhenOtherBatchOperationsFail() {
+        Post post = post("a", "b", "c");
+        graphApi.failItem(IMAGE_URL + "b", 400, 9004, false);
+        graphApi.timeOutItem(IMAGE_URL + "c");
+
+        assertThatThrownBy(() -> instagramService.stageCarouselPost(post))
+                .isInstanceOfSatisfying(InstagramPublishException.class, e -> {
+                    assertThat(e.getHttpStatus()).isEqualTo(400);
+                    assertThat(e.getGraphErrorCode()).isEqualTo(9004);
+                    assertThat(e.isTransientError()).isFalse();
+                });
+
+        assertThat(post.getInstagramItemContainerIds()).containsExactlyEntriesOf(Map.of("a", "container-1"));
+        verify(postRepository).saveInstagramItemContainer(post.getId(), "a", "container-1");
+        verify(postRepository, never()).saveInstagramItemContainer(eq(post.getId()), eq("b"), anyString());
+        verify(postRepository, never()).saveInstagramItemContainer(eq(post.getId()), eq("c"), anyString());
+        assertThat(graphApi.getStatusLookups()).isEmpty();
+        assertThat(post.getInstagramCarouselContainerId()).isNull();
+    }
+
+    @Test
+    void timedOutBatchOperationIsTransient() {
+        Post post = post("a", "b");
+        graphApi.timeOutItem(IMAGE_URL + "b");
+
+        assertThatThrownBy(() -> instagramService.stageCarouselPost(post))
+                .isInstanceOfSatisfying(InstagramPublishException.class,
+                        e -> assertThat(e.isTransientError()).isTrue());
+
+        assertThat(post.getInstagramItemContainerIds()).containsOnlyKeys("a");
+    }
+
+    @Test
+    void retryOnlyCreatesTheMissingItemContainers() {
+        Post post = post("a", "b", "c");
+        graphApi.timeOutItem(IMAGE_URL + "b");
+        assertThatThrownBy(() -> instagramService.stageCarouselPost(post))
+                .isInstanceOf(InstagramPublishException.class);
+
+        graphApi.clearFailures();
+        instagramService.stageCarouselPost(post);
+
+        assertThat(graphApi.getBatches()).hasSize(2);
+        assertThat(graphApi.getBatches().get(1))
+                .extracting(operation -> operation.path("body").asText())
+                .singleElement().asString()
+                .contains("cdn.example.com%2Fb");
+        assertThat(graphApi.getStatusLookups().get(0)).containsExactly("container-1", "container-3", "container-2");
+        assertThat(post.getInstagramCarouselContainerId()).isNotNull();
+    }
+
+    @Test
+    void itemContainerInErrorIsRemovedFromCheckpoints() {
+        Post post = post("a", "b");
+        graphApi.setStatus("container-2", "ERROR");
+
+        assertThatThrownBy(() -> instagramService.stageCarouselPost(post))
+                .isInstanceOf(InstagramPublishException.class)
+                .hasMessageContaining("container-2");
+
+        assertThat(post.getInstagramItemContainerIds()).containsOnlyKeys("a");
+        verify(postRepository).deleteInstagramItemContainer(post.getId(), "container-2");
+        verify(postRepository, never()).saveInstagramCarouselContainerId(anyString(), anyString(), any());
+    }
+
+    @Test
+    void failureOutsideInstagramIsNotReportedAsAPublishError() {
+        Post post = post("a");
+        DataAccessResourceFailureException databaseError = new DataAccessResourceFailureException("Database is down");
+        doThrow(databaseError).when(postRepository).saveInstagramItemContainer(anyString(), anyString(), anyString());
+
+        assertThatThrownBy(() -> instagramService.stageCarouselPost(post)).isSameAs(databaseError);
+    }
+
+    @Test
+    void batchClientSplitsLargeRequestsAndKeepsTheirOrder() {
+        List<GraphBatchRequest> requests = IntStream.range(0, 120)
+                .mapToObj(i -> GraphBatchRequest.post(ACCOUNT_ID + "/media", "image_url=" + IMAGE_URL + i))
+                .toList();
+        graphApi.timeOutItem(IMAGE_URL + 119);
+
+        List<GraphBatchResponse> responses = batchClient.execute(ACCOUNT_ID, "token", requests);
+
+        assertThat(graphApi.getBatches()).extracting(List::size).containsExactly(50, 50, 20);
+        assertThat(responses).hasSize(120);
+        assertThat(responses.get(0).getBody()).contains("container-1");
+        assertThat(responses.get(118).getBody()).contains("container-119");
+        assertThat(responses.get(119)).isNull();
+    }
+
+    private Post post(String... contentFileIds) {
+        List<ContentFile> contentFiles = new ArrayList<>();
+        for (String contentFileId : contentFileIds) {
+            ContentFile contentFile = new ContentFile();
+            contentFile.setId(contentFileId);
+            contentFile.setS3Key(contentFileId);
+            contentFiles.add(contentFile);
+        }
+
+        Post post = new Post();
+        post.setId("post-1");
+        post.setText("Caption");
+        post.setContentFiles(contentFiles);
+        return post;
+    }
+}
@@ -0,0 +1,105 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.PublishingConfig;
+import com.somesimplify.somesimplify.exception.InstagramPublishException;
+import com.somesimplify.somesimplify.exception.InstagramRateLimitedException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PublishRetryPolicyTest {
+
+    private final PublishingConfig publishingConfig = new PublishingConfig();
+    private final PublishRetryPolicy retryPolicy = new PublishRetryPolicy(publishingConfig);
+
+    @Test
+    void retriesTransientGraphErrors() {
+        assertThat(retryPolicy.isRetryable(error(400, 2, false))).isTrue();
+        assertThat(retryPolicy.isRetryable(error(400, 100, true))).isTrue();
+        assertThat(retryPolicy.isRetryable(new InstagramRateLimitedException("Quota used up", Duration.ofMinutes(1))))
+                .isTrue();
+    }
+
+    @Test
+    void doesNotRetryPermanentGraphErrors() {
+        assertThat(retryPolicy.isRetryable(error(400, 100, false))).isFalse();
+        assertThat(retryPolicy.isRetryable(error(500, 190, false))).isFalse();
+        assertThat(retryPolicy.isRetryable(new InstagramPublishException("Not an image"))).isFalse();
+    }
+
+    @Test
+    void retriesServerErrorsWithoutAGraphErrorCode() {
+        assertThat(retryPolicy.isRetryable(error(502, null, false))).isTrue();
+        assertThat(retryPolicy.isRetryable(error(404, null, false))).isFalse();
+    }
+
+    @Test
+    void recognisesRateLimits() {
+        assertThat(retryPolicy.isRateLimited(error(400, 4, false))).isTrue();
+        assertThat(retryPolicy.isRateLimited(error(400, 80002, false))).isTrue();
+        assertThat(retryPolicy.isRateLimited(error(429, null, false))).isTrue();
+        assertThat(retryPolicy.isRateLimited(error(400, 100, false))).isFalse();
+        assertThat(retryPolicy.isRetryable(error(400, 613, false))).isTrue();
+
+        assertThat(PublishRetryPolicy.isRateLimitedGraphCode(17)).isTrue();
+        assertThat(PublishRetryPolicy.isRateLimitedGraphCode(190)).isFalse();
+        assertThat(PublishRetryPolicy.isRateLimitedGraphCode(null)).isFalse();
+    }
+
+    @Test
+    void stopsAfterTheMaxAttempts() {
+        publishingConfig.getRetry().setMaxAttempts(3);
+
+        assertThat(retryPolicy.hasAttemptsLeft(2)).isTrue();
+        assertThat(retryPolicy.hasAttemptsLeft(3)).isFalse();
+    }
+
+    @Test
+    void backoffDoublesPerAttemptWithJitterInTheUpperHalf() {
+        configureDelays(Duration.ofMinutes(1), Duration.ofHours(2), Duration.ofMinutes(15));
+
+        for (int i = 0; i < 50; i++) {
+            assertDelayBetween(retryPolicy.nextAttemptAt(1, false), Duration.ofSeconds(30), Duration.ofMinutes(1));
+            assertDelayBetween(retryPolicy.nextAttemptAt(3, false), Duration.ofMinutes(2), Duration.ofMinutes(4));
+        }
+    }
+
+    @Test
+    void backoffNeverExceedsTheMaxDelay() {
+        configureDelays(Duration.ofMinutes(1), Duration.ofMinutes(10), Duration.ofMinutes(5));
+
+        assertDelayBetween(retryPolicy.nextAttemptAt(10, false), Duration.ofMinutes(5), Duration.ofMinutes(10));
+        assertDelayBetween(retryPolicy.nextAttemptAt(100, false), Duration.ofMinutes(5), Duration.ofMinutes(10));
+    }
+
+    @Test
+    void rateLimitedAttemptsWaitAtLeastTheRateLimitDelay() {
+        configureDelays(Duration.ofMinutes(1), Duration.ofHours(2), Duration.ofMinutes(15));
+
+        for (int i = 0; i < 50; i++) {
+            assertDelayBetween(retryPolicy.nextAttemptAt(1, true),
+                    Duration.ofSeconds(450), Duration.ofMinutes(15));
+        }
+    }
+
+    private void configureDelays(Duration baseDelay, Duration maxDelay, Duration rateLimitDelay) {
+        publishingConfig.getRetry().setBaseDelay(baseDelay);
+        publishingConfig.getRetry().setMaxDelay(maxDelay);
+        publishingConfig.getRetry().setRateLimitDelay(rateLimitDelay);
+    }
+
+    private void assertDelayBetween(OffsetDateTime nextAttemptAt, Duration min, Duration max) {
+        OffsetDateTime now = OffsetDateTime.now();
+        assertThat(nextAttemptAt)
+                .isAfterOrEqualTo(now.plus(min).minusSeconds(1))
+                .isBeforeOrEqualTo(now.plus(max));
+    }
+
+    private InstagramPublishException error(Integer httpStatus, Integer graphErrorCode, boolean transientError) {
+        return new InstagramPublishException("Graph API error", null, httpStatus, graphErrorCode, null,
+                transientError);
+    }
+}
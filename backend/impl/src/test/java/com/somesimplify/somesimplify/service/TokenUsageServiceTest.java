@@ -0,0 +1,190 @@
+package com.somesimplify.somesimplify.service;
+
+import com.somesimplify.somesimplify.config.TokenUsageConfig;
+import com.somesimplify.somesimplify.exception.TokenBudgetExceededException;
+import com.somesimplify.somesimplify.model.Tenant;
+import com.somesimplify.somesimplify.repository.TenantRepository;
+import com.somesimplify.somesimplify.repository.TenantTokenUsageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TokenUsageServiceTest {
+
+    private static final String TENANT_ID = "tenant-1";
+
+    private final TenantTokenUsageRepository tenantTokenUsageRepository = mock(TenantTokenUsageRepository.class);
+    private final TenantRepository tenantRepository = mock(TenantRepository.class);
+    private final TokenUsageConfig tokenUsageConfig = new TokenUsageConfig();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private TokenUsageService tokenUsageService;
+
+    @BeforeEach
+    void setUp() {
+        tokenUsageService = new TokenUsageService(tenantTokenUsageRepository, tenantRepository, tokenUsageConfig,
+                meterRegistry);
+        when(tenantTokenUsageRepository.findTotalTokens(eq(TENANT_ID), any())).thenReturn(100L);
+        when(tenantRepository.findById(TENANT_ID)).thenReturn(Optional.of(tenant(null)));
+    }
+
+    @Test
+    void usedTokensIncludeUsageThatIsNotFlushedYet() {
+        tokenUsageService.record(TENANT_ID, usage(10, 5), 0);
+        tokenUsageService.record(TENANT_ID, usage(20, 5), 0);
+
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(140);
+        verify(tenantTokenUsageRepository, never())
+                .addUsage(anyString(), any(), anyLong(), anyLong(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void flushWritesOneUpsertPerTenantAndDay() {
+        tokenUsageService.record(TENANT_ID, usage(10, 5), Duration.ofMillis(300).toNanos());
+        tokenUsageService.record(TENANT_ID, usage(20, 5), Duration.ofMillis(200).toNanos());
+        tokenUsageService.record("tenant-2", usage(1, 1), 0);
+        when(tenantTokenUsageRepository.addUsage(eq(TENANT_ID), any(), anyLong(), anyLong(), anyLong(), anyLong(),
+                any())).thenReturn(500L);
+
+        tokenUsageService.flush();
+
+        verify(tenantTokenUsageRepository).addUsage(eq(TENANT_ID), any(), eq(30L), eq(10L), eq(2L), eq(500L), any());
+        verify(tenantTokenUsageRepository).addUsage(eq("tenant-2"), any(), eq(1L), eq(1L), eq(1L), eq(0L), any());
+        // The total returned by the upsert includes other nodes' usage
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(500);
+    }
+
+    @Test
+    void flushWritesNothingTwice() {
+        tokenUsageService.record(TENANT_ID, usage(10, 5), 0);
+
+        tokenUsageService.flush();
+        tokenUsageService.flush();
+
+        verify(tenantTokenUsageRepository, times(1))
+                .addUsage(anyString(), any(), anyLong(), anyLong(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void usageThatCouldNotBeSavedIsKeptForTheNextFlush() {
+        tokenUsageService.record(TENANT_ID, usage(10, 5), 0);
+        when(tenantTokenUsageRepository.addUsage(anyString(), any(), anyLong(), anyLong(), anyLong(), anyLong(),
+                any())).thenThrow(new DataAccessResourceFailureException("Database is down")).thenReturn(140L);
+
+        tokenUsageService.flush();
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(115);
+
+        tokenUsageService.record(TENANT_ID, usage(20, 5), 0);
+        tokenUsageService.flush();
+
+        verify(tenantTokenUsageRepository, times(2))
+                .addUsage(eq(TENANT_ID), any(), anyLong(), anyLong(), anyLong(), anyLong(), any());
+        verify(tenantTokenUsageRepository).addUsage(eq(TENANT_ID), any(), eq(30L), eq(10L), eq(2L), anyLong(), any());
+    }
+
+    @Test
+    void usageRecordedDuringAFlushIsWrittenByTheNextOne() {
+        tokenUsageService.record(TENANT_ID, usage(10, 5), 0);
+        when(tenantTokenUsageRepository.addUsage(anyString(), any(), anyLong(), anyLong(), anyLong(), anyLong(),
+                any())).thenAnswer(invocation -> {
+                    tokenUsageService.record(TENANT_ID, usage(20, 5), 0);
+                    return 115L;
+                }).thenReturn(140L);
+
+        tokenUsageService.flush();
+
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(140);
+
+        tokenUsageService.flush();
+
+        verify(tenantTokenUsageRepository).addUsage(eq(TENANT_ID), any(), eq(10L), eq(5L), eq(1L), anyLong(), any());
+        verify(tenantTokenUsageRepository).addUsage(eq(TENANT_ID), any(), eq(20L), eq(5L), eq(1L), anyLong(), any());
+    }
+
+    @Test
+    void totalsWrittenByOtherNodesAreReadAgainAfterAFlush() {
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(100);
+        when(tenantTokenUsageRepository.findTotalTokens(eq(TENANT_ID), any())).thenReturn(250L);
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(100);
+
+        tokenUsageService.flush();
+
+        assertThat(tokenUsageService.getUsedTokens(TENANT_ID)).isEqualTo(250);
+    }
+
+    @Test
+    void rejectsCallsOnceTheTenantsBudgetIsUsed() {
+        when(tenantRepository.findById(TENANT_ID)).thenReturn(Optional.of(tenant(120L)));
+
+        assertThatCode(() -> tokenUsageService.checkBudget(TENANT_ID)).doesNotThrowAnyException();
+
+        tokenUsageService.record(TENANT_ID, usage(15, 5), 0);
+
+        assertThat(tokenUsageService.hasBudgetLeft(TENANT_ID)).isFalse();
+        assertThatThrownBy(() -> tokenUsageService.checkBudget(TENANT_ID))
+                .isInstanceOfSatisfying(TokenBudgetExceededException.class, e -> assertThat(e.getRetryAfter())
+                        .isPositive()
+                        .isLessThanOrEqualTo(Duration.ofHours(25)));
+        assertThat(meterRegistry.counter("ai.token_budget.rejections").count()).isEqualTo(1);
+    }
+
+    @Test
+    void usesTheDefaultBudgetWhenTheTenantHasNone() {
+        tokenUsageConfig.setDefaultDailyBudget(100);
+
+        assertThat(tokenUsageService.hasBudgetLeft(TENANT_ID)).isFalse();
+    }
+
+    @Test
+    void zeroBudgetAndCallsWithoutATenantAreNotLimited() {
+        tokenUsageService.record(TENANT_ID, usage(1_000_000, 0), 0);
+        tokenUsageService.record(null, usage(10, 5), 0);
+
+        assertThat(tokenUsageService.hasBudgetLeft(TENANT_ID)).isTrue();
+        assertThat(tokenUsageService.hasBudgetLeft(null)).isTrue();
+        assertThat(meterRegistry.counter("ai.tokens", "type", "prompt").count()).isEqualTo(1_000_010);
+    }
+
+    @Test
+    void budgetChangesArePickedUpAfterAFlush() {
+        tokenUsageService.hasBudgetLeft(TENANT_ID);
+        tokenUsageService.hasBudgetLeft(TENANT_ID);
+        verify(tenantRepository, times(1)).findById(TENANT_ID);
+
+        when(tenantRepository.findById(TENANT_ID)).thenReturn(Optional.of(tenant(50L)));
+        tokenUsageService.flush();
+
+        assertThat(tokenUsageService.hasBudgetLeft(TENANT_ID)).isFalse();
+    }
+
+    private Tenant tenant(Long dailyTokenBudget) {
+        Tenant tenant = new Tenant();
+        tenant.setDailyTokenBudget(dailyTokenBudget);
+        return tenant;
+    }
+
+    private Usage usage(int promptTokens, int completionTokens) {
+        Usage usage = mock(Usage.class);
+        when(usage.getPromptTokens()).thenReturn(promptTokens);
+        when(usage.getCompletionTokens()).thenReturn(completionTokens);
+        return usage;
+    }
+}